@@ -0,0 +1,218 @@
+package wcyoung.spring.mvc.common.security;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+
+import wcyoung.spring.mvc.common.security.annotation.ApplyXssFilterBeans;
+
+/**
+ * {@link AbstractResponseXssFilterAdvice#beforeBodyWrite} 벤치마크.
+ * <p>
+ * body는 trial마다 한 번만 만든다. advice가 escape한 문자열을 제자리에서 바꾸므로 dirtyRatio가 0보다 크면
+ * 측정 메소드 안에서 원래 문자열을 다시 넣는다. (객체를 만들지 않으므로 gc.alloc.rate.norm에는 영향이 없고,
+ * 시간은 {@link #restoreOnly()} 결과를 빼서 본다.)
+ * dirtyRatio는 escape가 필요한 문자열의 비율(%)이다.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ResponseXssFilterAdviceBenchmark {
+
+    @Param({"STRING", "MAP", "LIST", "BEAN"})
+    private String bodyType;
+
+    @Param({"10", "1000", "10000"})
+    private int size;
+
+    @Param({"0", "10"})
+    private int dirtyRatio;
+
+    private AbstractResponseXssFilterAdvice advice;
+    private MethodParameter returnType;
+    private Object body;
+
+    private String[] columns;
+    private String[][] originals;
+
+    @Setup(Level.Trial)
+    public void setUpAdvice() throws NoSuchMethodException {
+        advice = new AbstractResponseXssFilterAdvice() {
+            @Override
+            protected boolean supportsMediaType(MediaType mediaType) {
+                return MediaType.APPLICATION_JSON.includes(mediaType);
+            }
+        };
+        returnType = new MethodParameter(getClass().getMethod("handler"), -1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownAdvice() {
+        advice.destroy();
+    }
+
+    @Setup(Level.Trial)
+    public void setUpBody() {
+        switch (bodyType) {
+            case "STRING":
+                StringBuilder builder = new StringBuilder();
+                for (int i = 0; i < size; i++) {
+                    builder.append(value(i)).append(' ');
+                }
+                body = builder.toString();
+                break;
+            case "MAP":
+                setUpColumns(size);
+                originals = new String[1][];
+                body = row(0, size);
+                break;
+            case "LIST":
+                setUpColumns(8);
+                originals = new String[size][];
+                List<Object> rows = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    rows.add(row(i, 8));
+                }
+                body = rows;
+                break;
+            default:
+                originals = new String[size][];
+                List<Object> beans = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    originals[i] = new String[] {value(i), value(i + 1)};
+                    beans.add(new SampleBean(i, originals[i][0], originals[i][1]));
+                }
+                body = beans;
+                break;
+        }
+    }
+
+    @Benchmark
+    public Object beforeBodyWrite() {
+        if (dirtyRatio > 0) {
+            restore();
+        }
+        return advice.beforeBodyWrite(body, returnType, MediaType.APPLICATION_JSON, null, null, null);
+    }
+
+    /**
+     * {@link #beforeBodyWrite()}에 포함된 원본 복원 비용.
+     */
+    @Benchmark
+    public Object restoreOnly() {
+        if (dirtyRatio > 0) {
+            restore();
+        }
+        return body;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void restore() {
+        switch (bodyType) {
+            case "STRING":
+                break;
+            case "MAP":
+                restoreRow((Map<String, Object>) body, originals[0]);
+                break;
+            case "LIST":
+                List<Object> rows = (List<Object>) body;
+                for (int i = 0; i < originals.length; i++) {
+                    restoreRow((Map<String, Object>) rows.get(i), originals[i]);
+                }
+                break;
+            default:
+                List<Object> beans = (List<Object>) body;
+                for (int i = 0; i < originals.length; i++) {
+                    ((SampleBean) beans.get(i)).reset(originals[i][0], originals[i][1]);
+                }
+                break;
+        }
+    }
+
+    private void restoreRow(Map<String, Object> row, String[] values) {
+        for (int i = 0; i < values.length; i++) {
+            row.put(columns[i], values[i]);
+        }
+    }
+
+    private void setUpColumns(int count) {
+        columns = new String[count];
+        for (int i = 0; i < count; i++) {
+            columns[i] = "column" + i;
+        }
+    }
+
+    public Object handler() {
+        return null;
+    }
+
+    private Map<String, Object> row(int index, int count) {
+        String[] values = new String[count];
+        Map<String, Object> row = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            values[i] = value(index * count + i);
+            row.put(columns[i], values[i]);
+        }
+        row.put("id", index);
+        originals[index] = values;
+        return row;
+    }
+
+    private String value(int index) {
+        return (index % 100 < dirtyRatio) ? "<b>value-" + index + "</b>" : "value-" + index;
+    }
+
+    @ApplyXssFilterBeans
+    public static class SampleBean {
+
+        private final int id;
+        private String name;
+        private String description;
+        private List<String> tags = new ArrayList<>();
+
+        public SampleBean(int id, String name, String description) {
+            this.id = id;
+            this.name = name;
+            this.description = description;
+            this.tags.add(name);
+        }
+
+        void reset(String name, String description) {
+            this.name = name;
+            this.description = description;
+            this.tags.set(0, name);
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        public List<String> getTags() {
+            return tags;
+        }
+    }
+
+}
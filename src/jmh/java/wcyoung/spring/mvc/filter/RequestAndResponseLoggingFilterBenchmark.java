@@ -0,0 +1,104 @@
+package wcyoung.spring.mvc.filter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+/**
+ * {@link RequestAndResponseLoggingFilter} 벤치마크.
+ * <p>
+ * debug 로그가 켜진 상태(build.gradle의 jmh jvmArgs 참고)에서 JSON 요청/응답 한 건을 처리하는 비용을 측정한다.
+ * <p>
+ * mock 요청/응답과 filter chain은 trial마다 한 번만 만들고, 측정 메소드 안에서 객체를 만들지 않는 reset으로 재사용한다.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RequestAndResponseLoggingFilterBenchmark {
+
+    @Param({"256", "65536"})
+    private int bodySize;
+
+    private RequestAndResponseLoggingFilter filter;
+    private HttpServlet servlet;
+    private byte[] requestBody;
+
+    private MockHttpServletRequest request;
+    private MockHttpServletResponse response;
+    private MockFilterChain filterChain;
+
+    @Setup(Level.Trial)
+    public void setUpFilter() {
+        filter = new RequestAndResponseLoggingFilter();
+
+        requestBody = jsonBody(bodySize);
+        final byte[] responseBody = jsonBody(bodySize);
+
+        servlet = new HttpServlet() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void service(HttpServletRequest request, HttpServletResponse response) throws IOException {
+                byte[] buffer = new byte[4096];
+                InputStream input = request.getInputStream();
+                while (input.read(buffer) != -1) {
+                    // consume request body
+                }
+                response.setStatus(HttpServletResponse.SC_OK);
+                response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+                response.setCharacterEncoding("UTF-8");
+                response.getOutputStream().write(responseBody);
+            }
+        };
+
+        request = new MockHttpServletRequest("POST", "/api/users");
+        request.setQueryString("page=1&size=20");
+        request.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        request.setCharacterEncoding("UTF-8");
+        request.addHeader("Accept", MediaType.APPLICATION_JSON_VALUE);
+        request.addHeader("User-Agent", "Mozilla/5.0 (X11; Linux x86_64)");
+        request.addHeader("X-Request-Id", "4f1c2a9e-5b0d-4a43-9e7f-1f3b2c6d8e90");
+        request.setContent(requestBody);
+        response = new MockHttpServletResponse();
+        filterChain = new MockFilterChain(servlet);
+    }
+
+    @Benchmark
+    public MockHttpServletResponse doFilter() throws ServletException, IOException {
+        request.clearAttributes();
+        response.setCommitted(false);
+        response.reset();
+        filterChain.reset();
+
+        filter.doFilter(request, response, filterChain);
+        return response;
+    }
+
+    private static byte[] jsonBody(int size) {
+        char[] padding = new char[Math.max(0, size - 16)];
+        Arrays.fill(padding, 'x');
+        return ("{\"data\":\"" + new String(padding) + "\"}").getBytes(StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,115 @@
+package wcyoung.spring.mvc.mybatis.plugin;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.session.Configuration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * {@link MybatisSqlLogInterceptor#getParameterBindingSql(Configuration, BoundSql, Object)} 벤치마크.
+ * <p>
+ * parameters 개수만큼의 IN 목록을 가진 조회문을 Map/빈 파라미터로 렌더링한다.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MybatisSqlLogInterceptorBenchmark {
+
+    @Param({"MAP", "BEAN"})
+    private String parameterType;
+
+    @Param({"5", "100", "1000"})
+    private int parameters;
+
+    private MybatisSqlLogInterceptor interceptor;
+    private Configuration configuration;
+    private BoundSql boundSql;
+    private Object parameterObject;
+
+    @Setup
+    public void setUp() {
+        interceptor = new MybatisSqlLogInterceptor();
+        configuration = new Configuration();
+
+        StringBuilder sql = new StringBuilder()
+                .append("SELECT USER_ID, USER_NAME, EMAIL, CREATED_AT\n")
+                .append("  FROM USERS\n")
+                .append("\n")
+                .append(" WHERE STATUS = ?\n")
+                .append("   AND USER_NAME LIKE ?\n")
+                .append("   AND USER_ID IN (");
+
+        List<ParameterMapping> parameterMappings = new ArrayList<>();
+        parameterMappings.add(new ParameterMapping.Builder(configuration, "status", String.class).build());
+        parameterMappings.add(new ParameterMapping.Builder(configuration, "name", String.class).build());
+
+        Map<String, Object> map = new HashMap<>();
+        map.put("status", "ACTIVE");
+        map.put("name", "O'Brien%");
+
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < parameters; i++) {
+            sql.append((i == 0) ? "?" : ", ?");
+            String property = "__frch_id_" + i;
+            parameterMappings.add(new ParameterMapping.Builder(configuration, property, Long.class).build());
+            map.put(property, (long) i);
+            ids.add((long) i);
+        }
+        sql.append(")\n ORDER BY USER_ID\n");
+
+        if ("MAP".equals(parameterType)) {
+            parameterObject = map;
+            boundSql = new BoundSql(configuration, sql.toString(), parameterMappings, parameterObject);
+        } else {
+            parameterObject = new UserCriteria("ACTIVE", "O'Brien%", ids);
+            boundSql = new BoundSql(configuration, sql.toString(), parameterMappings, parameterObject);
+            for (int i = 0; i < parameters; i++) {
+                boundSql.setAdditionalParameter("__frch_id_" + i, (long) i);
+            }
+        }
+    }
+
+    @Benchmark
+    public String getParameterBindingSql() throws Exception {
+        return interceptor.getParameterBindingSql(configuration, boundSql, parameterObject);
+    }
+
+    public static class UserCriteria {
+
+        private String status;
+        private String name;
+        private List<Long> ids;
+
+        public UserCriteria(String status, String name, List<Long> ids) {
+            this.status = status;
+            this.name = name;
+            this.ids = ids;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public List<Long> getIds() {
+            return ids;
+        }
+    }
+
+}
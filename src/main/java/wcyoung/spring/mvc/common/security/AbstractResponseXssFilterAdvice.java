@@ -1,48 +1,132 @@
 package wcyoung.spring.mvc.common.security;
 
-import java.lang.reflect.Field;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ForkJoinWorkerThreadFactory;
+import java.util.concurrent.ForkJoinWorkerThread;
 
-import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.lang3.exception.ExceptionUtils;
-import org.apache.commons.lang3.reflect.FieldUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.core.MethodParameter;
 import org.springframework.http.MediaType;
 import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.json.AbstractJackson2HttpMessageConverter;
 import org.springframework.http.server.ServerHttpRequest;
 import org.springframework.http.server.ServerHttpResponse;
-import org.springframework.util.ClassUtils;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
 import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
 
-import wcyoung.spring.mvc.common.security.annotation.ApplyXssFilter;
-import wcyoung.spring.mvc.common.security.annotation.ApplyXssFilterBeans;
-import wcyoung.spring.mvc.common.security.annotation.IgnoreXssFilter;
-import wcyoung.spring.mvc.common.security.annotation.IgnoreXssFilterField;
+public abstract class AbstractResponseXssFilterAdvice implements ResponseBodyAdvice<Object>, DisposableBean {
 
-public abstract class AbstractResponseXssFilterAdvice implements ResponseBodyAdvice<Object> {
+    private static final int MIN_PARALLEL_CHUNK_SIZE = 256;
 
     protected final Logger log = LoggerFactory.getLogger(getClass());
 
+    private XssEscaper escaper = XssEscaper.DEFAULT;
+
+    private XssEscapeCache escapeCache;
+
+    private boolean filterOnSerialize = false;
+    private volatile boolean serializeFilterConfirmed = false;
+
+    private int maxDepth = 100;
+
+    private int parallelThreshold = 0;
+    private int parallelism = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private volatile ForkJoinPool parallelPool;
+
+    private final ConcurrentMap<Object, XssFilterDecision> decisions = new ConcurrentHashMap<>();
+
     protected abstract boolean supportsMediaType(MediaType mediaType);
 
-    @Override
-    public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
-        if (returnType.hasMethodAnnotation(IgnoreXssFilter.class)) {
-            log.debug("{} - @IgnoreXssFilter has been applied.", returnType.getMethod());
-            return false;
+    /**
+     * 문자열 치환 규칙 지정. (기본값: {@link XssEscaper#DEFAULT})
+     */
+    public void setEscaper(XssEscaper escaper) {
+        this.escaper = escaper;
+        if (escapeCache != null) {
+            escapeCache.clear();
+        }
+    }
+
+    protected XssEscaper getEscaper() {
+        return escaper;
+    }
+
+    /**
+     * 반복되는 문자열의 escape 결과를 재사용할 캐시 지정. 지정하지 않으면 사용하지 않는다.
+     * 적중률 등 통계는 {@link #getEscapeCache()}로 확인한다.
+     */
+    public void setEscapeCache(XssEscapeCache escapeCache) {
+        this.escapeCache = escapeCache;
+    }
+
+    public XssEscapeCache getEscapeCache() {
+        return escapeCache;
+    }
+
+    /**
+     * true이면 응답 객체를 미리 순회/수정하지 않고, 직렬화 시점에 {@link XssFilterJacksonModule}이 필터를 적용한다.
+     * 메시지 컨버터의 ObjectMapper에 {@link XssFilterJacksonModule}이 등록되어 있어야 한다. (기본값: false)
+     * <p>
+     * 선택된 메시지 컨버터가 {@link AbstractJackson2HttpMessageConverter}가 아니면 기존처럼 응답 객체를 순회해서 필터를 적용한다.
+     * 모듈이 한 번도 동작하지 않은 상태에서 응답 body 직렬화가 끝났는데 필터 정보가 사용되지 않았으면 warn 로그를 남긴다.
+     */
+    public void setFilterOnSerialize(boolean filterOnSerialize) {
+        this.filterOnSerialize = filterOnSerialize;
+    }
+
+    /**
+     * 응답 객체 그래프 순회시 최대 깊이. 초과하는 하위 객체가 있으면 필터가 적용되지 않은 응답이 나가지 않도록
+     * {@link IllegalStateException}을 던진다. (기본값: 100)
+     */
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * 응답 body가 이 크기 이상의 List이면 전용 ForkJoinPool에서 구간별로 나누어 병렬로 필터를 적용한다.
+     * 0 이하이면 사용하지 않는다. (기본값: 0)
+     * <p>
+     * 병렬 처리시 {@link #filter(String)}는 여러 쓰레드에서 동시에 호출된다.
+     */
+    public void setParallelThreshold(int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    /**
+     * 병렬 처리 pool의 쓰레드 수. 모든 요청이 같은 pool을 공유하므로 큰 응답이 몰려도 이 이상의 CPU를 쓰지 않는다.
+     * 1 이상이어야 하며, pool은 첫 병렬 처리시 생성되므로 그 이후에는 변경할 수 없다. (기본값: CPU 수 / 2)
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1: " + parallelism);
         }
+        synchronized (this) {
+            if (parallelPool != null) {
+                throw new IllegalStateException("parallel pool has already been created with parallelism " + this.parallelism);
+            }
+            this.parallelism = parallelism;
+        }
+    }
 
-        if (returnType.getContainingClass().isAnnotationPresent(IgnoreXssFilter.class)
-                && !returnType.hasMethodAnnotation(ApplyXssFilter.class)) {
-            log.debug("{} - @IgnoreXssFilter has been applied.", returnType.getContainingClass());
-            return false;
+    @Override
+    public void destroy() {
+        if (parallelPool != null) {
+            parallelPool.shutdown();
         }
+    }
 
-        return true;
+    @Override
+    public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+        return getDecision(returnType).isEnabled();
     }
 
     @SuppressWarnings("unchecked")
@@ -51,178 +135,124 @@ public abstract class AbstractResponseXssFilterAdvice implements ResponseBodyAdv
             MediaType selectedContentType, Class<? extends HttpMessageConverter<?>> selectedConverterType,
             ServerHttpRequest request, ServerHttpResponse response) {
 
-        if (!supportsMediaType(selectedContentType)) {
+        XssFilterDecision decision = getDecision(returnType);
+
+        if (!decision.supportsMediaType(selectedContentType, this)) {
             log.debug("[{}] type is not supported.", selectedContentType);
             return body;
         }
 
-        String[] ignoreKeys = {};
-
-        ApplyXssFilter applyXssFilter = returnType.getMethodAnnotation(ApplyXssFilter.class);
-        if (applyXssFilter != null) {
-            ignoreKeys = (applyXssFilter.ignoreKeys() == null) ? ignoreKeys : applyXssFilter.ignoreKeys();
-        };
+        if (!(body instanceof Map) && decision.hasIgnoreKeys()) {
+            throw new IllegalArgumentException(decision.getMethod()
+                    + " - @ApplyXssFilter.ignoreKeys only applies when response body type is Map.");
+        }
 
         if (body instanceof String) {
-            if (ignoreKeys.length > 0) {
-                throw new IllegalArgumentException(returnType.getMethod()
-                        + " - @ApplyXssFilter.ignoreKeys only applies when response body type is Map.");
-            }
-            log.trace("{} is filtered.", returnType.getMethod());
+            log.trace("{} is filtered.", decision.getMethod());
             return filter((String) body);
         }
 
-        if (body instanceof Map) {
-            if (ignoreKeys.length > 0) {
-                log.debug("{} - ignoreKeys{} has been applied.", returnType.getMethod(), ignoreKeys);
+        if (filterOnSerialize && isJacksonConverter(selectedConverterType) && request instanceof ServletServerHttpRequest) {
+            log.trace("{} is filtered on serialize.", decision.getMethod());
+            XssFilterContext context = new XssFilterContext(this, decision.getIgnoreKeys(), body);
+            ((ServletServerHttpRequest) request).getServletRequest().setAttribute(XssFilterContext.ATTRIBUTE, context);
+            if (!serializeFilterConfirmed) {
+                checkConsumedOnCompletion(context, decision);
             }
-            log.trace("{} is filtered.", returnType.getMethod());
-            return filter((Map<String, Object>) body, ignoreKeys);
+            return body;
         }
 
-        if (body instanceof List) {
-            if (ignoreKeys.length > 0) {
-                throw new IllegalArgumentException(returnType.getMethod()
-                        + " - @ApplyXssFilter.ignoreKeys only applies when response body type is Map.");
-            }
-            log.trace("{} is filtered.", returnType.getMethod());
-            return filter((List<Object>) body);
+        if (isParallelTarget(body)) {
+            List<Object> list = (List<Object>) body;
+            log.trace("{} is filtered in parallel. (size={})", decision.getMethod(), list.size());
+            return XssFilterTraversal.traverseInParallel(this, maxDepth, list, getParallelPool(),
+                    Math.max(MIN_PARALLEL_CHUNK_SIZE, list.size() / (parallelism * 4)));
         }
 
-        if (ignoreKeys.length > 0) {
-            throw new IllegalArgumentException(returnType.getMethod()
-                    + " - @ApplyXssFilter.ignoreKeys only applies when response body type is Map.");
-        }
-        log.trace("{} is filtered.", returnType.getMethod());
-        return filter(body);
+        log.trace("{} is filtered.", decision.getMethod());
+        return new XssFilterTraversal(this, maxDepth).traverse(body, decision.getIgnoreKeys());
     }
 
-    protected String filter(String value) {
-        if (value == null) {
-            return value;
-        }
-
-        value = value.replace("<", "&lt;").replace(">", "&gt;");
-        value = value.replace("'", "&#39;").replace("\"", "&quot;");
-        return value;
+    private static boolean isJacksonConverter(Class<? extends HttpMessageConverter<?>> converterType) {
+        return converterType != null && AbstractJackson2HttpMessageConverter.class.isAssignableFrom(converterType);
     }
 
-    @SuppressWarnings("unchecked")
-    private Map<String, Object> filter(Map<String, Object> map) {
-        if (map == null) {
-            return map;
-        }
-
-        for (Entry<String, Object> entry : map.entrySet()) {
-            String key = entry.getKey();
-            Object value = entry.getValue();
-
-            if (value instanceof String) {
-                map.put(key, filter((String) value));
-            } else if (value instanceof Map) {
-                map.put(key, filter((Map<String, Object>) value));
-            } else if (value instanceof List) {
-                map.put(key, filter((List<Object>) value));
-            } else {
-                map.put(key, filter(value));
-            }
-        }
-
-        return map;
+    /**
+     * {@link XssFilterJacksonModule}이 필터 정보를 사용했음을 기록한다. 이후에는 사용 여부를 확인하지 않는다.
+     */
+    void confirmSerializeFilter() {
+        serializeFilterConfirmed = true;
     }
 
-    @SuppressWarnings("unchecked")
-    private Map<String, Object> filter(Map<String, Object> map, String[] ignoreKeys) {
-        if (map == null) {
-            return map;
+    /**
+     * 요청이 끝날 때 필터 정보가 사용되지 않았으면 모듈이 등록되지 않은 것으로 보고 warn 로그를 남긴다.
+     * (문자열이 없는 응답도 사용되지 않으므로 모듈이 한 번 동작한 뒤에는 확인하지 않는다.)
+     */
+    private void checkConsumedOnCompletion(XssFilterContext context, XssFilterDecision decision) {
+        RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+        if (requestAttributes == null) {
+            return;
         }
-
-        for (Entry<String, Object> entry : map.entrySet()) {
-            String key = entry.getKey();
-            if (StringUtils.equalsAny(key, ignoreKeys)) {
-                continue;
+        requestAttributes.registerDestructionCallback(XssFilterContext.ATTRIBUTE + ".CHECK", () -> {
+            if (!context.isConsumed() && !serializeFilterConfirmed) {
+                log.warn("{} - response body may have been written without XSS filter. "
+                        + "Check that XssFilterJacksonModule is registered on the converter's ObjectMapper.", decision.getMethod());
             }
-
-            Object value = entry.getValue();
-
-            if (value instanceof String) {
-                map.put(key, filter((String) value));
-            } else if (value instanceof Map) {
-                map.put(key, filter((Map<String, Object>) value));
-            } else if (value instanceof List) {
-                map.put(key, filter((List<Object>) value));
-            } else {
-                map.put(key, filter(value));
-            }
-        }
-
-        return map;
+        }, RequestAttributes.SCOPE_REQUEST);
     }
 
-    @SuppressWarnings("unchecked")
-    private List<Object> filter(List<Object> list) {
-        if (list == null) {
-            return list;
-        }
+    private boolean isParallelTarget(Object body) {
+        return parallelThreshold > 0 && body instanceof List && body instanceof RandomAccess
+                && ((List<?>) body).size() >= parallelThreshold;
+    }
 
-        for (int i = 0, length = list.size(); i < length; i++) {
-            Object value = list.get(i);
-
-            if (value instanceof String) {
-                list.set(i, filter((String) value));
-            } else if (value instanceof Map) {
-                list.set(i, filter((Map<String, Object>) value));
-            } else if (value instanceof List) {
-                list.set(i, filter((List<Object>) value));
-            } else {
-                list.set(i, filter(value));
+    private ForkJoinPool getParallelPool() {
+        ForkJoinPool pool = parallelPool;
+        if (pool == null) {
+            synchronized (this) {
+                pool = parallelPool;
+                if (pool == null) {
+                    pool = new ForkJoinPool(parallelism, new ForkJoinWorkerThreadFactory() {
+                        @Override
+                        public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                            thread.setName("xss-filter-" + thread.getPoolIndex());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    }, null, false);
+                    parallelPool = pool;
+                }
             }
         }
-
-        return list;
+        return pool;
     }
 
-    @SuppressWarnings("unchecked")
-    private Object filter(Object object) {
-        if (object == null) {
-            return object;
-        }
-
-        Class<?> clazz = ClassUtils.getUserClass(object);
-        ApplyXssFilterBeans applyXssFilterBeans = clazz.getAnnotation(ApplyXssFilterBeans.class);
-
-        if (applyXssFilterBeans == null) {
-            return object;
-        }
-
-        List<Field> fields = FieldUtils.getAllFieldsList(clazz);
-
-        for (int i = 0, length = fields.size(); i < length; i++) {
-            Field field = fields.get(i);
-            if (field.getAnnotation(IgnoreXssFilterField.class) != null) {
-                continue;
+    private XssFilterDecision getDecision(MethodParameter returnType) {
+        Object key = XssFilterDecision.cacheKey(returnType);
+        XssFilterDecision decision = decisions.get(key);
+        if (decision == null) {
+            decision = XssFilterDecision.resolve(returnType);
+            XssFilterDecision previous = decisions.putIfAbsent(key, decision);
+            if (previous != null) {
+                return previous;
             }
 
-            try {
-                if (field.getType().equals(String.class)) {
-                    String value = (String) FieldUtils.readField(field, object, true);
-                    FieldUtils.writeField(field, object, filter(value));
-                } else if (field.getType().equals(Map.class)) {
-                    Map<String, Object> value = (Map<String, Object>) FieldUtils.readField(field, object, true);
-                    FieldUtils.writeField(field, object, filter(value));
-                } else if (field.getType().equals(List.class)) {
-                    List<Object> value = (List<Object>) FieldUtils.readField(field, object, true);
-                    FieldUtils.writeField(field, object, filter(value));
-                } else {
-                    Object value = FieldUtils.readField(field, object, true);
-                    FieldUtils.writeField(field, object, filter(value));
-                }
-            } catch (Exception e) {
-                log.error("Exception: {}", ExceptionUtils.getStackTrace(e));
+            if (!decision.isEnabled()) {
+                log.debug("{} - @IgnoreXssFilter has been applied.", decision.getMethod());
+            } else if (decision.hasIgnoreKeys()) {
+                log.debug("{} - ignoreKeys{} has been applied.", decision.getMethod(), decision.getIgnoreKeyPaths());
             }
         }
+        return decision;
+    }
 
-        return object;
+    protected String filter(String value) {
+        XssEscapeCache cache = escapeCache;
+        if (cache != null) {
+            return cache.escape(value, getEscaper());
+        }
+        return getEscaper().escape(value);
     }
 
 }
@@ -0,0 +1,57 @@
+package wcyoung.spring.mvc.common.security;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.WebUtils;
+
+/**
+ * 요청 파라미터/헤더에 XSS 필터를 적용하는 filter.
+ * <p>
+ * 요청을 {@link XssFilterRequestWrapper}로 감싸기만 하고, 실제 escape는 값을 읽는 시점에 수행된다.
+ * {@link RequestXssFilterInterceptor}를 함께 등록하면 {@link wcyoung.spring.mvc.common.security.annotation.IgnoreXssFilter}
+ * 핸들러는 필터가 적용되지 않는다.
+ */
+public class RequestXssFilter extends OncePerRequestFilter {
+
+    private XssEscaper escaper = XssEscaper.DEFAULT;
+    private Set<String> headerNames = Collections.emptySet();
+
+    /**
+     * 문자열 치환 규칙 지정. (기본값: {@link XssEscaper#DEFAULT})
+     */
+    public void setEscaper(XssEscaper escaper) {
+        this.escaper = escaper;
+    }
+
+    /**
+     * 필터를 적용할 헤더명. (기본값: 없음)
+     */
+    public void setHeaderNames(Set<String> headerNames) {
+        Set<String> names = new HashSet<>();
+        for (String headerName : headerNames) {
+            names.add(headerName.toLowerCase(Locale.ENGLISH));
+        }
+        this.headerNames = names;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        if (WebUtils.getNativeRequest(request, XssFilterRequestWrapper.class) != null) {
+            filterChain.doFilter(request, response);
+        } else {
+            filterChain.doFilter(new XssFilterRequestWrapper(request, escaper, headerNames), response);
+        }
+    }
+
+}
@@ -0,0 +1,52 @@
+package wcyoung.spring.mvc.common.security;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.MethodParameter;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+import org.springframework.web.util.WebUtils;
+
+import wcyoung.spring.mvc.common.security.annotation.ApplyXssFilter;
+import wcyoung.spring.mvc.common.security.annotation.IgnoreXssFilter;
+
+/**
+ * 핸들러의 {@link IgnoreXssFilter}/{@link ApplyXssFilter} 설정에 따라 {@link RequestXssFilter}의 적용 여부를 결정하는 interceptor.
+ * 핸들러 메소드별 판단 결과는 최초 1회만 계산한다.
+ */
+public class RequestXssFilterInterceptor extends HandlerInterceptorAdapter {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final ConcurrentMap<Object, Boolean> decisions = new ConcurrentHashMap<>();
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        XssFilterRequestWrapper wrapper = WebUtils.getNativeRequest(request, XssFilterRequestWrapper.class);
+        if (wrapper != null && handler instanceof HandlerMethod) {
+            wrapper.setFilterEnabled(isEnabled((HandlerMethod) handler));
+        }
+        return true;
+    }
+
+    private boolean isEnabled(HandlerMethod handlerMethod) {
+        MethodParameter returnType = handlerMethod.getReturnType();
+        Object key = XssFilterDecision.cacheKey(returnType);
+        Boolean enabled = decisions.get(key);
+        if (enabled == null) {
+            enabled = XssFilterDecision.resolve(returnType).isEnabled();
+            decisions.putIfAbsent(key, enabled);
+            if (!enabled) {
+                log.debug("{} - @IgnoreXssFilter has been applied.", handlerMethod.getMethod());
+            }
+        }
+        return enabled;
+    }
+
+}
@@ -0,0 +1,137 @@
+package wcyoung.spring.mvc.common.security;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import wcyoung.spring.mvc.common.util.FrequencySketch;
+
+/**
+ * 반복되는 문자열의 escape 결과를 재사용하는 크기 제한 캐시.
+ * <p>
+ * 치환이 필요한 짧은 문자열만 대상으로 하며, 같은 입력에 대해서는 하나의 escape 결과 인스턴스를 공유한다.
+ * 캐시가 가득 차면 {@link FrequencySketch}로 추정한 접근 빈도가 가장 오래된 항목보다 높을 때만 새 항목을 받아들인다.
+ * (TinyLFU admission)
+ * <p>
+ * 제거 후보는 조회 순서가 아닌 추가 순서(FIFO)로 정해지며, 새 항목보다 빈도가 높아 살아남은 후보는 순서의 끝으로 다시 옮겨진다.
+ * <p>
+ * 하나의 {@link XssEscaper}에 대해서만 사용해야 한다.
+ */
+public class XssEscapeCache {
+
+    private final int maximumSize;
+    private final int maxValueLength;
+
+    private final ConcurrentMap<String, String> cache;
+    private final FrequencySketch sketch;
+    private final Deque<String> insertionOrder = new ArrayDeque<>();
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+    private final LongAdder rejectionCount = new LongAdder();
+
+    /**
+     * @param maximumSize 최대 항목 수 (1 이상)
+     * @param maxValueLength 캐시 대상 문자열의 최대 길이
+     */
+    public XssEscapeCache(int maximumSize, int maxValueLength) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("maximumSize must be at least 1: " + maximumSize);
+        }
+        this.maximumSize = maximumSize;
+        this.maxValueLength = maxValueLength;
+        this.cache = new ConcurrentHashMap<>(maximumSize);
+        this.sketch = new FrequencySketch(maximumSize);
+    }
+
+    public String escape(String value, XssEscaper escaper) {
+        if (value == null || value.length() > maxValueLength || !escaper.requiresEscape(value)) {
+            return escaper.escape(value);
+        }
+
+        sketch.increment(value);
+
+        String escaped = cache.get(value);
+        if (escaped != null) {
+            hitCount.increment();
+            return escaped;
+        }
+
+        missCount.increment();
+        escaped = escaper.escape(value);
+        admit(value, escaped);
+        return escaped;
+    }
+
+    private void admit(String value, String escaped) {
+        synchronized (insertionOrder) {
+            if (cache.containsKey(value)) {
+                return;
+            }
+
+            if (cache.size() >= maximumSize) {
+                String victim = insertionOrder.pollFirst();
+                if (sketch.frequency(value) <= sketch.frequency(victim)) {
+                    insertionOrder.offerLast(victim);
+                    rejectionCount.increment();
+                    return;
+                }
+                cache.remove(victim);
+                evictionCount.increment();
+            }
+
+            cache.put(value, escaped);
+            insertionOrder.offerLast(value);
+        }
+    }
+
+    public void clear() {
+        synchronized (insertionOrder) {
+            cache.clear();
+            insertionOrder.clear();
+        }
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    /**
+     * 새 항목을 받아들이기 위해 제거된 항목 수.
+     */
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    /**
+     * 빈도가 낮아 캐시에 넣지 않은 항목 수.
+     */
+    public long getRejectionCount() {
+        return rejectionCount.sum();
+    }
+
+    public double getHitRate() {
+        long hits = getHitCount();
+        long requests = hits + getMissCount();
+        return (requests == 0) ? 0 : (double) hits / requests;
+    }
+
+    @Override
+    public String toString() {
+        return "XssEscapeCache [size=" + size() + ", hitCount=" + getHitCount() + ", missCount=" + getMissCount()
+                + ", evictionCount=" + getEvictionCount() + ", rejectionCount=" + getRejectionCount()
+                + ", hitRate=" + String.format("%.3f", getHitRate()) + "]";
+    }
+
+}
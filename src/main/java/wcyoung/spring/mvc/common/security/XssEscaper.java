@@ -0,0 +1,153 @@
+package wcyoung.spring.mvc.common.security;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * 문자 단위 치환표를 이용한 XSS escape 처리기.
+ * <p>
+ * 문자열을 한 번만 훑어서 치환할 문자가 없으면 원본 인스턴스를 그대로 돌려주고,
+ * 치환이 필요한 경우에만 결과 길이에 맞춘 버퍼 하나에 기록한다.
+ */
+public class XssEscaper {
+
+    /**
+     * 기존 {@link AbstractResponseXssFilterAdvice#filter(String)}와 동일한 치환 규칙. ({@code < > ' "})
+     */
+    public static final XssEscaper DEFAULT = new XssEscaper(replacements(
+            '<', "&lt;",
+            '>', "&gt;",
+            '\'', "&#39;",
+            '"', "&quot;"));
+
+    /**
+     * HTML 본문(text node)용 치환 규칙. ({@code & < >})
+     */
+    public static final XssEscaper HTML_TEXT = new XssEscaper(replacements(
+            '&', "&amp;",
+            '<', "&lt;",
+            '>', "&gt;"));
+
+    /**
+     * HTML 속성값용 치환 규칙. ({@code & < > ' "})
+     */
+    public static final XssEscaper HTML_ATTRIBUTE = new XssEscaper(replacements(
+            '&', "&amp;",
+            '<', "&lt;",
+            '>', "&gt;",
+            '\'', "&#39;",
+            '"', "&quot;"));
+
+    /**
+     * JavaScript 문자열 리터럴용 치환 규칙. (역슬래시, 따옴표, 태그/엔티티 문자, 제어문자, 줄 구분자)
+     */
+    public static final XssEscaper JS_STRING = new XssEscaper(javaScriptReplacements());
+
+    private final char[][] table;
+
+    public XssEscaper(Map<Character, String> replacements) {
+        int size = 0;
+        for (Character c : replacements.keySet()) {
+            size = Math.max(size, c + 1);
+        }
+
+        table = new char[size][];
+        for (Entry<Character, String> entry : replacements.entrySet()) {
+            table[entry.getKey()] = entry.getValue().toCharArray();
+        }
+    }
+
+    /**
+     * 치환할 문자가 포함되어 있는지 여부. 첫 번째 대상 문자에서 검사를 멈춘다.
+     */
+    public boolean requiresEscape(String value) {
+        if (value == null) {
+            return false;
+        }
+
+        char[][] table = this.table;
+        int tableLength = table.length;
+        for (int i = 0, length = value.length(); i < length; i++) {
+            char c = value.charAt(i);
+            if (c < tableLength && table[c] != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public String escape(String value) {
+        if (value == null) {
+            return value;
+        }
+
+        char[][] table = this.table;
+        int tableLength = table.length;
+        int length = value.length();
+        int first = -1;
+        int escapedLength = length;
+
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < tableLength && table[c] != null) {
+                if (first == -1) {
+                    first = i;
+                }
+                escapedLength += table[c].length - 1;
+            }
+        }
+
+        if (first == -1) {
+            return value;
+        }
+
+        char[] buffer = new char[escapedLength];
+        value.getChars(0, first, buffer, 0);
+        int position = first;
+
+        for (int i = first; i < length; i++) {
+            char c = value.charAt(i);
+            char[] replacement = (c < tableLength) ? table[c] : null;
+            if (replacement == null) {
+                buffer[position++] = c;
+            } else {
+                System.arraycopy(replacement, 0, buffer, position, replacement.length);
+                position += replacement.length;
+            }
+        }
+
+        return new String(buffer);
+    }
+
+    private static Map<Character, String> replacements(Object... pairs) {
+        Map<Character, String> replacements = new HashMap<>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            replacements.put((Character) pairs[i], (String) pairs[i + 1]);
+        }
+        return replacements;
+    }
+
+    private static Map<Character, String> javaScriptReplacements() {
+        Map<Character, String> replacements = new HashMap<>();
+        for (char c = 0; c < 0x20; c++) {
+            replacements.put(c, String.format("\\u%04x", (int) c));
+        }
+        replacements.put('\b', "\\b");
+        replacements.put('\t', "\\t");
+        replacements.put('\n', "\\n");
+        replacements.put('\f', "\\f");
+        replacements.put('\r', "\\r");
+        replacements.put('\\', "\\\\");
+        replacements.put('\'', "\\'");
+        replacements.put('"', "\\\"");
+        replacements.put('/', "\\/");
+        replacements.put('<', "\\u003c");
+        replacements.put('>', "\\u003e");
+        replacements.put('&', "\\u0026");
+        replacements.put('\u2028', "\\u2028");
+        replacements.put('\u2029', "\\u2029");
+        return replacements;
+    }
+
+}
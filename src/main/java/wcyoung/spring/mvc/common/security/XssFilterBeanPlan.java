@@ -0,0 +1,166 @@
+package wcyoung.spring.mvc.common.security;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang3.reflect.FieldUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.ClassUtils;
+
+import wcyoung.spring.mvc.common.security.annotation.ApplyXssFilterBeans;
+import wcyoung.spring.mvc.common.security.annotation.IgnoreXssFilterField;
+
+/**
+ * {@link ApplyXssFilterBeans} 클래스별로 한 번만 계산되는 필드 접근 계획.
+ * <p>
+ * 문자열 또는 문자열을 담을 수 있는 컨테이너(Map, Collection, 배열, 빈) 필드만 골라 {@link MethodHandle} 접근자로 보관한다.
+ * 어노테이션이 없는 클래스는 {@link #NOT_APPLIED}가 캐시되어 이후 비용이 없다.
+ */
+final class XssFilterBeanPlan {
+
+    private static final Logger log = LoggerFactory.getLogger(XssFilterBeanPlan.class);
+
+    static final XssFilterBeanPlan NOT_APPLIED = new XssFilterBeanPlan(false,
+            Collections.<FieldAccessor>emptyList(), Collections.<String>emptySet());
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+    private static final ClassValue<XssFilterBeanPlan> PLANS = new ClassValue<XssFilterBeanPlan>() {
+        @Override
+        protected XssFilterBeanPlan computeValue(Class<?> type) {
+            Class<?> userClass = ClassUtils.getUserClass(type);
+            return (userClass != type) ? forClass(userClass) : compile(type);
+        }
+    };
+
+    private final boolean applied;
+    private final FieldAccessor[] accessors;
+    private final Set<String> ignoredFieldNames;
+
+    private XssFilterBeanPlan(boolean applied, List<FieldAccessor> accessors, Set<String> ignoredFieldNames) {
+        this.applied = applied;
+        this.accessors = accessors.toArray(new FieldAccessor[0]);
+        this.ignoredFieldNames = ignoredFieldNames;
+    }
+
+    /**
+     * CGLIB 프록시 클래스는 원본 클래스의 계획을 사용한다.
+     */
+    static XssFilterBeanPlan forClass(Class<?> clazz) {
+        return PLANS.get(clazz);
+    }
+
+    boolean isApplied() {
+        return applied;
+    }
+
+    boolean isEmpty() {
+        return accessors.length == 0;
+    }
+
+    FieldAccessor[] getAccessors() {
+        return accessors;
+    }
+
+    /**
+     * 직렬화 시점 필터에서 사용. {@link IgnoreXssFilterField}가 선언된 필드명(Java 이름)이 아니면 필터 대상이다.
+     */
+    boolean filters(String propertyName) {
+        return applied && !ignoredFieldNames.contains(propertyName);
+    }
+
+    private static XssFilterBeanPlan compile(Class<?> clazz) {
+        if (!clazz.isAnnotationPresent(ApplyXssFilterBeans.class)) {
+            return NOT_APPLIED;
+        }
+
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        List<FieldAccessor> accessors = new ArrayList<>();
+        Set<String> ignoredFieldNames = new HashSet<>();
+
+        for (Field field : FieldUtils.getAllFieldsList(clazz)) {
+            if (Modifier.isStatic(field.getModifiers())) {
+                continue;
+            }
+            if (field.isAnnotationPresent(IgnoreXssFilterField.class)) {
+                ignoredFieldNames.add(field.getName());
+                continue;
+            }
+
+            if (!isFilterTarget(field.getType())) {
+                continue;
+            }
+
+            try {
+                field.setAccessible(true);
+                MethodHandle getter = lookup.unreflectGetter(field).asType(GETTER_TYPE);
+                MethodHandle setter = lookup.unreflectSetter(field).asType(SETTER_TYPE);
+                accessors.add(new FieldAccessor(field.getName(), getter, setter));
+            } catch (Exception e) {
+                log.debug("{}.{} is not writable and will not be filtered. ({})",
+                        clazz.getName(), field.getName(), e.toString());
+            }
+        }
+
+        log.debug("{} - {} field(s) will be filtered.", clazz.getName(), accessors.size());
+        return new XssFilterBeanPlan(true, accessors, ignoredFieldNames);
+    }
+
+    /**
+     * 선언 타입으로 보아 문자열을 담을 수 없는 필드(primitive, primitive 배열, JDK 값 타입 등)는 제외한다.
+     */
+    private static boolean isFilterTarget(Class<?> type) {
+        if (type.equals(String.class)) {
+            return true;
+        }
+        if (type.isPrimitive() || type.isEnum()) {
+            return false;
+        }
+        if (type.isArray()) {
+            return !type.getComponentType().isPrimitive();
+        }
+        if (type.equals(Object.class) || type.isInterface() || type.isAnnotationPresent(ApplyXssFilterBeans.class)
+                || Map.class.isAssignableFrom(type) || Collection.class.isAssignableFrom(type)) {
+            return true;
+        }
+        return !Modifier.isFinal(type.getModifiers()) && !type.getName().startsWith("java.");
+    }
+
+    static final class FieldAccessor {
+
+        private final String name;
+        private final MethodHandle getter;
+        private final MethodHandle setter;
+
+        private FieldAccessor(String name, MethodHandle getter, MethodHandle setter) {
+            this.name = name;
+            this.getter = getter;
+            this.setter = setter;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        Object get(Object bean) throws Throwable {
+            return (Object) getter.invokeExact(bean);
+        }
+
+        void set(Object bean, Object value) throws Throwable {
+            setter.invokeExact(bean, value);
+        }
+    }
+
+}
@@ -0,0 +1,123 @@
+package wcyoung.spring.mvc.common.security;
+
+import java.util.Map;
+
+import org.springframework.http.converter.json.MappingJacksonValue;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import com.fasterxml.jackson.core.JsonStreamContext;
+
+import wcyoung.spring.mvc.common.security.XssFilterDecision.IgnoreKeys;
+import wcyoung.spring.mvc.common.security.annotation.ApplyXssFilterBeans;
+import wcyoung.spring.mvc.common.security.annotation.IgnoreXssFilterField;
+
+/**
+ * 직렬화 시점 필터({@link XssFilterJacksonModule})에 전달되는 요청 단위 필터 정보.
+ * <p>
+ * {@link AbstractResponseXssFilterAdvice}가 request attribute로 등록하며,
+ * 응답 객체 그래프를 미리 순회하지 않고 문자열이 기록되는 시점에 같은 규칙으로 필터를 적용한다.
+ * 응답 body 직렬화가 시작될 때 request attribute에서 제거되어 한 번만 사용된다.
+ */
+final class XssFilterContext {
+
+    static final String ATTRIBUTE = XssFilterContext.class.getName();
+
+    private final AbstractResponseXssFilterAdvice advice;
+    private final IgnoreKeys ignoreKeys;
+    private final Object body;
+    private volatile boolean consumed;
+
+    XssFilterContext(AbstractResponseXssFilterAdvice advice, IgnoreKeys ignoreKeys, Object body) {
+        this.advice = advice;
+        this.ignoreKeys = ignoreKeys;
+        this.body = (body instanceof MappingJacksonValue) ? ((MappingJacksonValue) body).getValue() : body;
+    }
+
+    /**
+     * 현재 요청에 등록된 컨텍스트가 지금 기록 중인 응답 body의 것이면 request attribute에서 제거하고 반환한다.
+     */
+    static XssFilterContext consume(JsonStreamContext outputContext) {
+        RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+        if (requestAttributes == null) {
+            return null;
+        }
+
+        XssFilterContext context = (XssFilterContext) requestAttributes.getAttribute(ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        if (context == null || !context.isBodyOf(outputContext)) {
+            return null;
+        }
+        requestAttributes.removeAttribute(ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        context.consumed = true;
+        context.advice.confirmSerializeFilter();
+        return context;
+    }
+
+    /**
+     * {@link XssFilterJacksonModule}이 응답 body 직렬화에서 사용했는지 여부.
+     */
+    boolean isConsumed() {
+        return consumed;
+    }
+
+    /**
+     * 최상위 값이 body와 다른 객체로 확인되면 다른 직렬화로 본다.
+     * (최상위 배열/컬렉션은 Jackson이 현재 값을 기록하지 않으므로 body로 간주한다.)
+     */
+    private boolean isBodyOf(JsonStreamContext outputContext) {
+        JsonStreamContext top = outputContext;
+        while (top.getParent() != null && !top.getParent().inRoot()) {
+            top = top.getParent();
+        }
+        Object root = top.inRoot() ? null : top.getCurrentValue();
+        return root == null || root == body;
+    }
+
+    String filter(String value) {
+        return advice.filter(value);
+    }
+
+    /**
+     * 기록 위치의 상위 컨텍스트를 따라가며 pre-walk 방식과 같은 규칙을 적용한다.
+     * <ul>
+     * <li>Map 경로가 ignoreKeys에 해당하면 제외</li>
+     * <li>Map, 배열/컬렉션 하위는 필터 대상</li>
+     * <li>빈 객체 하위는 {@link ApplyXssFilterBeans} 클래스일 때만 필터 대상</li>
+     * </ul>
+     * {@link IgnoreXssFilterField} 필드는 {@link XssFilterJacksonModule}이 속성 단위로 제외한다.
+     */
+    boolean filters(JsonStreamContext outputContext) {
+        if (resolveIgnoreKeys(outputContext).isIgnored()) {
+            return false;
+        }
+
+        for (JsonStreamContext context = outputContext; context != null && !context.inRoot(); context = context.getParent()) {
+            if (context.inObject()) {
+                Object owner = context.getCurrentValue();
+                if (owner != null && !(owner instanceof Map) && !XssFilterBeanPlan.forClass(owner.getClass()).isApplied()) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * 최상위부터 Map 키 경로를 따라 내려가며 현재 위치에 적용되는 ignoreKeys 노드를 찾는다.
+     * 빈 객체를 거치면 ignoreKeys는 더 이상 적용되지 않는다.
+     */
+    private IgnoreKeys resolveIgnoreKeys(JsonStreamContext context) {
+        if (context == null || context.inRoot()) {
+            return ignoreKeys;
+        }
+
+        IgnoreKeys parent = resolveIgnoreKeys(context.getParent());
+        if (parent == IgnoreKeys.NONE || context.inArray()) {
+            return parent;
+        }
+
+        return (context.getCurrentValue() instanceof Map) ? parent.child(context.getCurrentName()) : IgnoreKeys.NONE;
+    }
+
+}
@@ -0,0 +1,225 @@
+package wcyoung.spring.mvc.common.security;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+
+import wcyoung.spring.mvc.common.security.annotation.ApplyXssFilter;
+import wcyoung.spring.mvc.common.security.annotation.IgnoreXssFilter;
+
+/**
+ * 핸들러 메소드별로 한 번만 계산되는 XSS 필터 적용 여부.
+ * <p>
+ * {@link IgnoreXssFilter}/{@link ApplyXssFilter} 판단 결과와 ignoreKeys를 보관하며,
+ * 응답 Content-Type별 지원 여부도 최초 1회만 확인한다.
+ */
+final class XssFilterDecision {
+
+    private static final int MAX_MEDIA_TYPE_DECISIONS = 64;
+
+    private final Method method;
+    private final boolean enabled;
+    private final IgnoreKeys ignoreKeys;
+    private final String[] ignoreKeyPaths;
+
+    private final ConcurrentMap<MediaType, Boolean> supportedMediaTypes = new ConcurrentHashMap<>();
+
+    private XssFilterDecision(Method method, boolean enabled, String[] ignoreKeyPaths) {
+        this.method = method;
+        this.enabled = enabled;
+        this.ignoreKeyPaths = ignoreKeyPaths;
+        this.ignoreKeys = IgnoreKeys.compile(ignoreKeyPaths);
+    }
+
+    static XssFilterDecision resolve(MethodParameter returnType) {
+        Method method = returnType.getMethod();
+
+        if (returnType.hasMethodAnnotation(IgnoreXssFilter.class)) {
+            return new XssFilterDecision(method, false, new String[0]);
+        }
+
+        if (returnType.getContainingClass().isAnnotationPresent(IgnoreXssFilter.class)
+                && !returnType.hasMethodAnnotation(ApplyXssFilter.class)) {
+            return new XssFilterDecision(method, false, new String[0]);
+        }
+
+        String[] ignoreKeyPaths = {};
+        ApplyXssFilter applyXssFilter = returnType.getMethodAnnotation(ApplyXssFilter.class);
+        if (applyXssFilter != null && applyXssFilter.ignoreKeys() != null) {
+            ignoreKeyPaths = applyXssFilter.ignoreKeys();
+        }
+
+        return new XssFilterDecision(method, true, ignoreKeyPaths);
+    }
+
+    /**
+     * 판단 결과 캐시의 키. 요청마다 만들어지는 {@link MethodParameter}(반환값을 보관하기도 한다) 대신
+     * 클래스 어노테이션 판단에 필요한 핸들러 클래스와 메소드만 보관한다.
+     */
+    static Object cacheKey(MethodParameter returnType) {
+        return new CacheKey(returnType.getContainingClass(), returnType.getMethod());
+    }
+
+    Method getMethod() {
+        return method;
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    boolean hasIgnoreKeys() {
+        return ignoreKeyPaths.length > 0;
+    }
+
+    String[] getIgnoreKeyPaths() {
+        return ignoreKeyPaths;
+    }
+
+    IgnoreKeys getIgnoreKeys() {
+        return ignoreKeys;
+    }
+
+    /**
+     * 파라미터를 제외한 type/subtype으로 판단한다. 파라미터는 요청의 Accept 헤더로 임의로 지정될 수 있으므로
+     * 캐시 키에 포함하지 않으며, 캐시가 가득 차면 저장하지 않고 매번 판단한다.
+     */
+    boolean supportsMediaType(MediaType mediaType, AbstractResponseXssFilterAdvice advice) {
+        if (mediaType == null) {
+            return advice.supportsMediaType(mediaType);
+        }
+
+        MediaType key = mediaType.getParameters().isEmpty() ? mediaType : new MediaType(mediaType.getType(), mediaType.getSubtype());
+        Boolean supported = supportedMediaTypes.get(key);
+        if (supported == null) {
+            supported = advice.supportsMediaType(key);
+            if (supportedMediaTypes.size() < MAX_MEDIA_TYPE_DECISIONS) {
+                supportedMediaTypes.putIfAbsent(key, supported);
+            }
+        }
+        return supported;
+    }
+
+    private static final class CacheKey {
+
+        private final Class<?> containingClass;
+        private final Method method;
+
+        private CacheKey(Class<?> containingClass, Method method) {
+            this.containingClass = containingClass;
+            this.method = method;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey other = (CacheKey) obj;
+            return containingClass == other.containingClass && method.equals(other.method);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * containingClass.hashCode() + method.hashCode();
+        }
+    }
+
+    /**
+     * ignoreKeys를 '.' 구분 경로 기준 트리로 변환한 것. ({@code "user.password"}는 user Map 하위의 password 키)
+     * <p>
+     * 경로 지원 이전과의 호환을 위해 '.'이 포함된 값은 최상위 Map의 같은 이름 키({@code "user.password"})도 제외한다.
+     * <p>
+     * 노드 하나가 Map 한 단계에 대응하며, 종단 노드의 키는 그 하위 전체가 필터 대상에서 제외된다.
+     * List 등 컬렉션 원소는 상위 Map과 같은 노드를 그대로 사용한다.
+     */
+    static final class IgnoreKeys {
+
+        static final IgnoreKeys NONE = new IgnoreKeys(false, Collections.<String, IgnoreKeys>emptyMap());
+
+        private static final IgnoreKeys IGNORED = new IgnoreKeys(true, Collections.<String, IgnoreKeys>emptyMap());
+
+        private final boolean ignored;
+        private final Map<String, IgnoreKeys> children;
+
+        private IgnoreKeys(boolean ignored, Map<String, IgnoreKeys> children) {
+            this.ignored = ignored;
+            this.children = children;
+        }
+
+        static IgnoreKeys compile(String[] paths) {
+            if (paths.length == 0) {
+                return NONE;
+            }
+
+            Map<String, Object> tree = new HashMap<>();
+            for (String path : paths) {
+                if (path.indexOf('.') >= 0) {
+                    tree.put(path, Boolean.TRUE);
+                }
+
+                Map<String, Object> node = tree;
+                String[] keys = path.split("\\.");
+                for (int i = 0; i < keys.length; i++) {
+                    if (i == keys.length - 1) {
+                        node.put(keys[i], Boolean.TRUE);
+                    } else {
+                        node = childTree(node, keys[i]);
+                        if (node == null) {
+                            break;
+                        }
+                    }
+                }
+            }
+            return build(tree);
+        }
+
+        @SuppressWarnings("unchecked")
+        private static Map<String, Object> childTree(Map<String, Object> node, String key) {
+            Object child = node.get(key);
+            if (child == Boolean.TRUE) {
+                return null;
+            }
+            if (child == null) {
+                child = new HashMap<String, Object>();
+                node.put(key, child);
+            }
+            return (Map<String, Object>) child;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static IgnoreKeys build(Map<String, Object> tree) {
+            Map<String, IgnoreKeys> children = new HashMap<>();
+            for (Map.Entry<String, Object> entry : tree.entrySet()) {
+                Object child = entry.getValue();
+                children.put(entry.getKey(), (child == Boolean.TRUE) ? IGNORED : build((Map<String, Object>) child));
+            }
+            return new IgnoreKeys(false, children);
+        }
+
+        boolean isIgnored() {
+            return ignored;
+        }
+
+        /**
+         * 하위 키에 적용할 노드. 규칙이 없으면 {@link #NONE}.
+         */
+        IgnoreKeys child(Object key) {
+            if (ignored) {
+                return this;
+            }
+            IgnoreKeys child = children.get(key);
+            return (child != null) ? child : NONE;
+        }
+    }
+
+}
@@ -0,0 +1,169 @@
+package wcyoung.spring.mvc.common.security;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.PropertyName;
+import com.fasterxml.jackson.databind.SerializationConfig;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.introspect.AnnotatedField;
+import com.fasterxml.jackson.databind.introspect.BeanPropertyDefinition;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.BeanPropertyWriter;
+import com.fasterxml.jackson.databind.ser.BeanSerializerModifier;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import wcyoung.spring.mvc.common.security.annotation.IgnoreXssFilterField;
+
+/**
+ * 문자열이 JSON/XML로 기록되는 시점에 XSS 필터를 적용하는 Jackson 모듈.
+ * <p>
+ * {@link AbstractResponseXssFilterAdvice#setFilterOnSerialize(boolean)}와 함께 사용하며,
+ * 메시지 컨버터의 ObjectMapper(XmlMapper)에 등록해야 한다.
+ * <pre>
+ * objectMapper.registerModule(new XssFilterJacksonModule());
+ * </pre>
+ * advice가 필터 대상으로 판단한 응답 body의 직렬화에서만 동작하므로 그 외 직렬화에는 영향이 없다.
+ * {@link IgnoreXssFilterField}는 JSON 속성명이 아닌 Java 필드명으로 판단하므로
+ * {@code @JsonProperty}나 naming strategy로 이름이 바뀐 필드에도 그대로 적용된다.
+ */
+public class XssFilterJacksonModule extends SimpleModule {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 필터 제외 필드를 기록하는 동안 설정되는 직렬화 attribute.
+     */
+    private static final String IGNORED_ATTRIBUTE = XssFilterJacksonModule.class.getName() + ".IGNORED";
+
+    public XssFilterJacksonModule() {
+        super(XssFilterJacksonModule.class.getSimpleName());
+        addSerializer(String.class, new XssFilterStringSerializer());
+        setSerializerModifier(new IgnoredPropertyModifier());
+    }
+
+    static class XssFilterStringSerializer extends StdSerializer<String> {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final Object NONE = new Object();
+
+        XssFilterStringSerializer() {
+            super(String.class);
+        }
+
+        @Override
+        public boolean isEmpty(SerializerProvider provider, String value) {
+            return value.isEmpty();
+        }
+
+        @Override
+        public void serialize(String value, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            XssFilterContext context = currentContext(gen, provider);
+            if (context != null && provider.getAttribute(IGNORED_ATTRIBUTE) == null && context.filters(gen.getOutputContext())) {
+                value = context.filter(value);
+            }
+            gen.writeString(value);
+        }
+
+        /**
+         * 직렬화 1회 동안 request attribute 조회를 반복하지 않도록 provider attribute에 보관한다.
+         * 응답 body 직렬화가 시작되면 request attribute는 제거되므로 같은 요청의 이후 직렬화에는 적용되지 않는다.
+         */
+        private XssFilterContext currentContext(JsonGenerator gen, SerializerProvider provider) {
+            Object context = provider.getAttribute(XssFilterContext.ATTRIBUTE);
+            if (context == null) {
+                context = XssFilterContext.consume(gen.getOutputContext());
+                provider.setAttribute(XssFilterContext.ATTRIBUTE, (context != null) ? context : NONE);
+            }
+            return (context instanceof XssFilterContext) ? (XssFilterContext) context : null;
+        }
+    }
+
+    /**
+     * {@link wcyoung.spring.mvc.common.security.annotation.ApplyXssFilterBeans} 클래스에서
+     * 필터 제외 필드에 해당하는 속성을 {@link IgnoredPropertyWriter}로 바꾼다.
+     * 속성은 {@link BeanPropertyDefinition#getInternalName()}(Java 이름)과 필드 어노테이션으로 판단한다.
+     */
+    static class IgnoredPropertyModifier extends BeanSerializerModifier {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public List<BeanPropertyWriter> changeProperties(SerializationConfig config, BeanDescription beanDesc,
+                List<BeanPropertyWriter> beanProperties) {
+
+            XssFilterBeanPlan plan = XssFilterBeanPlan.forClass(beanDesc.getBeanClass());
+            if (!plan.isApplied()) {
+                return beanProperties;
+            }
+
+            for (BeanPropertyDefinition property : beanDesc.findProperties()) {
+                if (!isIgnored(plan, property)) {
+                    continue;
+                }
+                for (int i = 0; i < beanProperties.size(); i++) {
+                    BeanPropertyWriter writer = beanProperties.get(i);
+                    if (writer.getName().equals(property.getName())) {
+                        beanProperties.set(i, new IgnoredPropertyWriter(writer));
+                    }
+                }
+            }
+            return beanProperties;
+        }
+
+        private static boolean isIgnored(XssFilterBeanPlan plan, BeanPropertyDefinition property) {
+            if (!plan.filters(property.getInternalName())) {
+                return true;
+            }
+            AnnotatedField field = property.getField();
+            return field != null && field.hasAnnotation(IgnoreXssFilterField.class);
+        }
+    }
+
+    /**
+     * 속성 값(하위 객체 포함)을 기록하는 동안 필터를 적용하지 않는다.
+     */
+    static class IgnoredPropertyWriter extends BeanPropertyWriter {
+
+        private static final long serialVersionUID = 1L;
+
+        IgnoredPropertyWriter(BeanPropertyWriter base) {
+            super(base);
+        }
+
+        IgnoredPropertyWriter(BeanPropertyWriter base, PropertyName name) {
+            super(base, name);
+        }
+
+        @Override
+        protected BeanPropertyWriter _new(PropertyName newName) {
+            return new IgnoredPropertyWriter(this, newName);
+        }
+
+        @Override
+        public void serializeAsField(Object bean, JsonGenerator gen, SerializerProvider prov) throws Exception {
+            Object previous = prov.getAttribute(IGNORED_ATTRIBUTE);
+            prov.setAttribute(IGNORED_ATTRIBUTE, Boolean.TRUE);
+            try {
+                super.serializeAsField(bean, gen, prov);
+            } finally {
+                prov.setAttribute(IGNORED_ATTRIBUTE, previous);
+            }
+        }
+
+        @Override
+        public void serializeAsElement(Object bean, JsonGenerator gen, SerializerProvider prov) throws Exception {
+            Object previous = prov.getAttribute(IGNORED_ATTRIBUTE);
+            prov.setAttribute(IGNORED_ATTRIBUTE, Boolean.TRUE);
+            try {
+                super.serializeAsElement(bean, gen, prov);
+            } finally {
+                prov.setAttribute(IGNORED_ATTRIBUTE, previous);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,200 @@
+package wcyoung.spring.mvc.common.security;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+
+/**
+ * 파라미터(지정한 헤더 포함) 값을 읽는 시점에 XSS 필터를 적용하는 request wrapper.
+ * <p>
+ * 애플리케이션이 실제로 읽은 값만 escape 하며, 결과는 요청 단위로 보관하여 같은 값을 다시 escape 하지 않는다.
+ * {@link RequestXssFilterInterceptor}가 {@link #setFilterEnabled(boolean)}로 핸들러별 적용 여부를 결정한다.
+ */
+public class XssFilterRequestWrapper extends HttpServletRequestWrapper {
+
+    private final XssEscaper escaper;
+    private final Set<String> headerNames;
+
+    private boolean filterEnabled = true;
+
+    private Map<String, String[]> parameterValues;
+    private Map<String, List<String>> headerValues;
+    private Map<String, String[]> parameterMap;
+
+    /**
+     * @param headerNames 필터를 적용할 헤더명 (소문자)
+     */
+    public XssFilterRequestWrapper(HttpServletRequest request, XssEscaper escaper, Set<String> headerNames) {
+        super(request);
+        this.escaper = escaper;
+        this.headerNames = headerNames;
+    }
+
+    public boolean isFilterEnabled() {
+        return filterEnabled;
+    }
+
+    public void setFilterEnabled(boolean filterEnabled) {
+        this.filterEnabled = filterEnabled;
+    }
+
+    @Override
+    public String getParameter(String name) {
+        String[] values = getParameterValues(name);
+        return (values != null && values.length > 0) ? values[0] : null;
+    }
+
+    @Override
+    public String[] getParameterValues(String name) {
+        if (!filterEnabled) {
+            return super.getParameterValues(name);
+        }
+
+        if (parameterValues == null) {
+            parameterValues = new HashMap<>();
+        } else if (parameterValues.containsKey(name)) {
+            return parameterValues.get(name);
+        }
+
+        String[] values = escape(super.getParameterValues(name));
+        parameterValues.put(name, values);
+        return values;
+    }
+
+    @Override
+    public Map<String, String[]> getParameterMap() {
+        if (!filterEnabled) {
+            return super.getParameterMap();
+        }
+
+        if (parameterMap == null) {
+            parameterMap = new ParameterMap();
+        }
+        return parameterMap;
+    }
+
+    @Override
+    public String getHeader(String name) {
+        List<String> values = getFilteredHeaders(name);
+        if (values == null) {
+            return super.getHeader(name);
+        }
+        return values.isEmpty() ? null : values.get(0);
+    }
+
+    @Override
+    public Enumeration<String> getHeaders(String name) {
+        List<String> values = getFilteredHeaders(name);
+        if (values == null) {
+            return super.getHeaders(name);
+        }
+        return Collections.enumeration(values);
+    }
+
+    /**
+     * @return 필터 대상 헤더가 아니면 null
+     */
+    private List<String> getFilteredHeaders(String name) {
+        if (!filterEnabled || name == null || headerNames.isEmpty()) {
+            return null;
+        }
+
+        String key = name.toLowerCase(Locale.ENGLISH);
+        if (!headerNames.contains(key)) {
+            return null;
+        }
+
+        if (headerValues == null) {
+            headerValues = new HashMap<>();
+        }
+
+        List<String> values = headerValues.get(key);
+        if (values == null) {
+            values = Collections.list(super.getHeaders(name));
+            for (int i = 0; i < values.size(); i++) {
+                values.set(i, escaper.escape(values.get(i)));
+            }
+            headerValues.put(key, values);
+        }
+        return values;
+    }
+
+    private String[] escape(String[] values) {
+        if (values == null) {
+            return values;
+        }
+
+        String[] escaped = null;
+        for (int i = 0; i < values.length; i++) {
+            String value = escaper.escape(values[i]);
+            if (value != values[i]) {
+                if (escaped == null) {
+                    escaped = values.clone();
+                }
+                escaped[i] = value;
+            }
+        }
+        return (escaped != null) ? escaped : values;
+    }
+
+    /**
+     * 원본 파라미터 Map을 복사하지 않고, 값을 조회할 때 {@link #getParameterValues(String)}로 escape 하는 읽기 전용 view.
+     */
+    private class ParameterMap extends AbstractMap<String, String[]> {
+
+        private final Map<String, String[]> source = XssFilterRequestWrapper.super.getParameterMap();
+
+        @Override
+        public boolean containsKey(Object key) {
+            return source.containsKey(key);
+        }
+
+        @Override
+        public String[] get(Object key) {
+            return (key instanceof String && source.containsKey(key)) ? getParameterValues((String) key) : null;
+        }
+
+        @Override
+        public int size() {
+            return source.size();
+        }
+
+        @Override
+        public Set<Entry<String, String[]>> entrySet() {
+            return new AbstractSet<Entry<String, String[]>>() {
+                @Override
+                public Iterator<Entry<String, String[]>> iterator() {
+                    final Iterator<String> names = source.keySet().iterator();
+                    return new Iterator<Entry<String, String[]>>() {
+                        @Override
+                        public boolean hasNext() {
+                            return names.hasNext();
+                        }
+
+                        @Override
+                        public Entry<String, String[]> next() {
+                            String name = names.next();
+                            return new SimpleImmutableEntry<>(name, getParameterValues(name));
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return source.size();
+                }
+            };
+        }
+    }
+
+}
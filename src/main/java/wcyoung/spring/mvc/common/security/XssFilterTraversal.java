@@ -0,0 +1,607 @@
+package wcyoung.spring.mvc.common.security;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import wcyoung.spring.mvc.common.security.XssFilterBeanPlan.FieldAccessor;
+import wcyoung.spring.mvc.common.security.XssFilterDecision.IgnoreKeys;
+
+/**
+ * 응답 객체 그래프에 XSS 필터를 적용하는 반복(iterative) 순회기. 응답 1건마다 생성해서 사용한다.
+ * <p>
+ * 재귀 대신 명시적인 작업 스택을 사용하고, 방문한 컨테이너(Map, Collection, 배열, 빈)는 identity 기준으로 기록하여
+ * 공유/순환 참조 객체도 정확히 한 번만 처리한다.
+ * <p>
+ * 문자열 값은 그 자리에서 치환하며(Map은 {@link Entry#setValue(Object)}), 수정할 수 없는 컨테이너
+ * (unmodifiable, immutable 컬렉션 등)는 실제로 값이 바뀌는 경우에만 복사본을 만들어 상위 컨테이너에 다시 연결한다.
+ * 바뀌지 않은 하위 객체는 원본 인스턴스가 그대로 유지된다.
+ */
+final class XssFilterTraversal {
+
+    private static final Logger log = LoggerFactory.getLogger(XssFilterTraversal.class);
+
+    /**
+     * 제자리에서 다시 채워도 되는 컬렉션. 그 외(Map.values() 같은 view 등)는 원본을 건드리지 않고 복사본으로 교체한다.
+     */
+    private static final Set<Class<?>> REFILLABLE_COLLECTIONS = new HashSet<>(Arrays.<Class<?>>asList(
+            ArrayList.class, LinkedList.class, HashSet.class, LinkedHashSet.class, TreeSet.class, ArrayDeque.class));
+
+    private final AbstractResponseXssFilterAdvice advice;
+    private final int maxDepth;
+
+    private final Deque<Node> stack = new ArrayDeque<>();
+    private final VisitedNodes visited;
+
+    /**
+     * 두 곳 이상에서 참조되는 노드. 순회가 끝난 뒤 복사본으로 교체된 노드를 나머지 참조 위치에도 반영한다.
+     */
+    private final List<Node> sharedNodes = new ArrayList<>();
+
+    private boolean resolving = false;
+
+    XssFilterTraversal(AbstractResponseXssFilterAdvice advice, int maxDepth) {
+        this(advice, maxDepth, new IdentityVisitedNodes());
+    }
+
+    private XssFilterTraversal(AbstractResponseXssFilterAdvice advice, int maxDepth, VisitedNodes visited) {
+        this.advice = advice;
+        this.maxDepth = maxDepth;
+        this.visited = visited;
+    }
+
+    /**
+     * @return 필터가 적용된 값. 수정할 수 없는 컨테이너가 바뀐 경우 복사본
+     */
+    Object traverse(Object root, IgnoreKeys ignoreKeys) {
+        Node rootNode = push(root, 0, ignoreKeys, null, null);
+        run();
+        resolveSharedNodes(sharedNodes);
+        return (rootNode != null) ? rootNode.value : root;
+    }
+
+    /**
+     * 크기가 큰 List를 구간별로 나누어 pool에서 병렬로 필터를 적용한다.
+     * 방문 기록은 모든 구간이 공유하므로 여러 행에서 참조하는 객체도 한 번만 처리된다.
+     * 각 행의 결과는 배열에 모았다가 모든 구간이 끝난 뒤 요청 쓰레드에서 List에 반영한다.
+     *
+     * @return 필터가 적용된 List. 수정할 수 없는 List인 경우 복사본
+     */
+    static List<Object> traverseInParallel(AbstractResponseXssFilterAdvice advice, int maxDepth,
+            List<Object> list, ForkJoinPool pool, int chunkSize) {
+        Object[] rows = list.toArray();
+        Node rowsNode = new Node(rows, 0, IgnoreKeys.NONE, null, null);
+        VisitedNodes visited = new ConcurrentVisitedNodes();
+        visited.putIfAbsent(list, rowsNode);
+
+        Queue<List<Node>> sharedNodes = new ConcurrentLinkedQueue<>();
+        pool.invoke(new ChunkTask(advice, maxDepth, visited, sharedNodes, rowsNode, 0, rows.length, chunkSize));
+
+        XssFilterTraversal resolver = new XssFilterTraversal(advice, maxDepth, visited);
+        for (List<Node> nodes : sharedNodes) {
+            resolver.resolveSharedNodes(nodes);
+        }
+
+        try {
+            for (int i = 0; i < rows.length; i++) {
+                if (rows[i] != list.get(i)) {
+                    list.set(i, rows[i]);
+                }
+            }
+            return list;
+        } catch (UnsupportedOperationException e) {
+            return new ArrayList<>(Arrays.asList(rows));
+        }
+    }
+
+    private void run() {
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            Object value = node.value;
+
+            if (value instanceof Map) {
+                filterMap(node);
+            } else if (value instanceof List) {
+                filterList(node);
+            } else if (value instanceof Collection) {
+                filterCollection(node);
+            } else if (value instanceof Object[]) {
+                filterArray(node);
+            } else {
+                filterBean(node);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void filterMap(Node node) {
+        Map<Object, Object> map = (Map<Object, Object>) node.value;
+        Map<Object, Object> copy = null;
+
+        for (Entry<Object, Object> entry : map.entrySet()) {
+            Object key = entry.getKey();
+            IgnoreKeys childIgnoreKeys = node.ignoreKeys.child(key);
+            if (childIgnoreKeys.isIgnored()) {
+                continue;
+            }
+
+            Object value = entry.getValue();
+            if (!(value instanceof String)) {
+                push(value, node.depth + 1, childIgnoreKeys, node, key);
+                continue;
+            }
+
+            String filtered = advice.filter((String) value);
+            if (filtered == value) {
+                continue;
+            }
+
+            if (copy == null) {
+                try {
+                    entry.setValue(filtered);
+                    continue;
+                } catch (UnsupportedOperationException e) {
+                    copy = copyMap(map);
+                    replace(node, copy);
+                }
+            }
+            copy.put(key, filtered);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void filterList(Node node) {
+        List<Object> list = (List<Object>) node.value;
+        List<Object> copy = null;
+
+        if (list instanceof RandomAccess) {
+            for (int i = 0, length = list.size(); i < length; i++) {
+                Object value = list.get(i);
+                if (!(value instanceof String)) {
+                    push(value, node.depth + 1, node.ignoreKeys, node, i);
+                    continue;
+                }
+
+                String filtered = advice.filter((String) value);
+                if (filtered == value) {
+                    continue;
+                }
+
+                if (copy == null) {
+                    try {
+                        list.set(i, filtered);
+                        continue;
+                    } catch (UnsupportedOperationException e) {
+                        copy = new ArrayList<>(list);
+                        replace(node, copy);
+                    }
+                }
+                copy.set(i, filtered);
+            }
+        } else {
+            for (ListIterator<Object> iterator = list.listIterator(); iterator.hasNext();) {
+                int index = iterator.nextIndex();
+                Object value = iterator.next();
+                if (!(value instanceof String)) {
+                    push(value, node.depth + 1, node.ignoreKeys, node, index);
+                    continue;
+                }
+
+                String filtered = advice.filter((String) value);
+                if (filtered == value) {
+                    continue;
+                }
+
+                if (copy == null) {
+                    try {
+                        iterator.set(filtered);
+                        continue;
+                    } catch (UnsupportedOperationException e) {
+                        copy = new ArrayList<>(list);
+                        replace(node, copy);
+                    }
+                }
+                copy.set(index, filtered);
+            }
+        }
+    }
+
+    /**
+     * Set 등 위치 기반 수정이 불가능한 컬렉션은 변경된 문자열이 있을 때만 순서를 유지하여 다시 채우거나 복사본으로 교체한다.
+     */
+    @SuppressWarnings("unchecked")
+    private void filterCollection(Node node) {
+        Collection<Object> collection = (Collection<Object>) node.value;
+        List<Object> elements = null;
+        int index = 0;
+
+        for (Object value : collection) {
+            if (value instanceof String) {
+                String filtered = advice.filter((String) value);
+                if (filtered != value && elements == null) {
+                    elements = new ArrayList<>(collection.size());
+                    copyHead(collection, index, elements);
+                }
+                if (elements != null) {
+                    elements.add(filtered);
+                }
+            } else {
+                push(value, node.depth + 1, node.ignoreKeys, node, value);
+                if (elements != null) {
+                    elements.add(value);
+                }
+            }
+            index++;
+        }
+
+        if (elements != null) {
+            refill(node, collection, elements);
+        }
+    }
+
+    private static void copyHead(Collection<Object> collection, int length, List<Object> elements) {
+        int index = 0;
+        for (Object value : collection) {
+            if (index++ == length) {
+                break;
+            }
+            elements.add(value);
+        }
+    }
+
+    private void filterArray(Node node) {
+        Object[] array = (Object[]) node.value;
+
+        for (int i = 0; i < array.length; i++) {
+            Object value = array[i];
+            if (value instanceof String) {
+                String filtered = advice.filter((String) value);
+                if (filtered != value) {
+                    array[i] = filtered;
+                }
+            } else {
+                push(value, node.depth + 1, node.ignoreKeys, node, i);
+            }
+        }
+    }
+
+    private void filterBean(Node node) {
+        Object bean = node.value;
+        XssFilterBeanPlan plan = XssFilterBeanPlan.forClass(bean.getClass());
+
+        for (FieldAccessor accessor : plan.getAccessors()) {
+            Object value;
+            try {
+                value = accessor.get(bean);
+                if (value instanceof String) {
+                    String filtered = advice.filter((String) value);
+                    if (filtered != value) {
+                        accessor.set(bean, filtered);
+                    }
+                    continue;
+                }
+            } catch (Throwable e) {
+                log.error("Exception: {}", ExceptionUtils.getStackTrace(e));
+                continue;
+            }
+            push(value, node.depth + 1, IgnoreKeys.NONE, node, accessor);
+        }
+    }
+
+    /**
+     * 필터 대상 컨테이너만 스택에 쌓는다. 이미 방문한 객체는 참조 위치만 추가로 기록한다.
+     * 최대 깊이를 넘는 컨테이너가 있으면 필터가 적용되지 않은 값이 응답되지 않도록 예외를 던진다.
+     *
+     * @param slot 상위 컨테이너에서의 위치 (Map 키, List/배열 인덱스, Collection 원소, 빈 필드 접근자)
+     */
+    private Node push(Object value, int depth, IgnoreKeys ignoreKeys, Node parent, Object slot) {
+        if (!isContainer(value)) {
+            return null;
+        }
+
+        if (depth > maxDepth) {
+            throw new IllegalStateException("Max depth(" + maxDepth + ") exceeded while filtering " + value.getClass().getName());
+        }
+
+        Node node = new Node(value, depth, ignoreKeys, parent, slot);
+        Node existing = visited.putIfAbsent(value, node);
+        if (existing != null) {
+            if (parent != null && existing.addReferrer(parent, slot)) {
+                sharedNodes.add(existing);
+            }
+            return existing;
+        }
+
+        stack.push(node);
+        return node;
+    }
+
+    private static boolean isContainer(Object value) {
+        if (value == null) {
+            return false;
+        }
+        if (value instanceof Map || value instanceof Collection || value instanceof Object[]) {
+            return true;
+        }
+        return !XssFilterBeanPlan.forClass(value.getClass()).isEmpty();
+    }
+
+    /**
+     * 복사본으로 교체된 공유 노드를 나머지 참조 위치에 반영한다. 모든 순회가 끝난 뒤 한 쓰레드에서만 호출한다.
+     */
+    private void resolveSharedNodes(List<Node> nodes) {
+        resolving = true;
+        for (Node node : nodes) {
+            if (node.value != node.original) {
+                for (Referrer referrer : node.referrers) {
+                    writeChild(referrer.parent, referrer.slot, node.original, node.value);
+                }
+            }
+        }
+    }
+
+    /**
+     * 노드를 복사본으로 교체하고 상위 컨테이너에 연결한다. 상위 컨테이너도 수정할 수 없으면 같은 방식으로 복사된다.
+     */
+    private void replace(Node node, Object copy) {
+        node.value = copy;
+
+        if (node.parent != null) {
+            writeChild(node.parent, node.slot, node.original, copy);
+        }
+
+        if (resolving && node.referrers != null) {
+            for (Referrer referrer : node.referrers) {
+                writeChild(referrer.parent, referrer.slot, node.original, copy);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void writeChild(Node parent, Object slot, Object oldValue, Object newValue) {
+        Object container = parent.value;
+
+        if (container instanceof Map) {
+            Map<Object, Object> map = (Map<Object, Object>) container;
+            try {
+                map.put(slot, newValue);
+            } catch (UnsupportedOperationException e) {
+                Map<Object, Object> copy = copyMap(map);
+                copy.put(slot, newValue);
+                replace(parent, copy);
+            }
+        } else if (container instanceof List) {
+            List<Object> list = (List<Object>) container;
+            try {
+                list.set((Integer) slot, newValue);
+            } catch (UnsupportedOperationException e) {
+                List<Object> copy = new ArrayList<>(list);
+                copy.set((Integer) slot, newValue);
+                replace(parent, copy);
+            }
+        } else if (container instanceof Collection) {
+            Collection<Object> collection = (Collection<Object>) container;
+            List<Object> elements = new ArrayList<>(collection.size());
+            for (Object element : collection) {
+                elements.add((element == oldValue) ? newValue : element);
+            }
+            refill(parent, collection, elements);
+        } else if (container instanceof Object[]) {
+            ((Object[]) container)[(Integer) slot] = newValue;
+        } else {
+            try {
+                ((FieldAccessor) slot).set(container, newValue);
+            } catch (Throwable e) {
+                log.error("Exception: {}", ExceptionUtils.getStackTrace(e));
+            }
+        }
+    }
+
+    /**
+     * 알려진 JDK 컬렉션만 비우고 다시 채운다. 그 외의 컬렉션은 clear()가 원본(view의 backing Map 등)을 지울 수 있으므로
+     * 수정하지 않고 복사본으로 교체한다.
+     */
+    private void refill(Node node, Collection<Object> collection, List<Object> elements) {
+        if (REFILLABLE_COLLECTIONS.contains(collection.getClass())) {
+            collection.clear();
+            collection.addAll(elements);
+        } else {
+            replace(node, copyCollection(collection, elements));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<Object, Object> copyMap(Map<Object, Object> map) {
+        if (map instanceof SortedMap) {
+            return new TreeMap<>((SortedMap<Object, Object>) map);
+        }
+        return new LinkedHashMap<>(map);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Collection<Object> copyCollection(Collection<Object> collection, List<Object> elements) {
+        if (collection instanceof SortedSet) {
+            TreeSet<Object> copy = new TreeSet<>(((SortedSet<Object>) collection).comparator());
+            copy.addAll(elements);
+            return copy;
+        }
+        if (collection instanceof Set) {
+            return new LinkedHashSet<>(elements);
+        }
+        return elements;
+    }
+
+    /**
+     * 행 배열의 [from, to) 구간을 처리하는 작업. chunkSize 이하가 될 때까지 반으로 나눈다.
+     */
+    private static final class ChunkTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient AbstractResponseXssFilterAdvice advice;
+        private final int maxDepth;
+        private final transient VisitedNodes visited;
+        private final transient Queue<List<Node>> sharedNodes;
+        private final transient Node rowsNode;
+        private final int from;
+        private final int to;
+        private final int chunkSize;
+
+        private ChunkTask(AbstractResponseXssFilterAdvice advice, int maxDepth, VisitedNodes visited,
+                Queue<List<Node>> sharedNodes, Node rowsNode, int from, int to, int chunkSize) {
+            this.advice = advice;
+            this.maxDepth = maxDepth;
+            this.visited = visited;
+            this.sharedNodes = sharedNodes;
+            this.rowsNode = rowsNode;
+            this.from = from;
+            this.to = to;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > chunkSize) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ChunkTask(advice, maxDepth, visited, sharedNodes, rowsNode, from, middle, chunkSize),
+                        new ChunkTask(advice, maxDepth, visited, sharedNodes, rowsNode, middle, to, chunkSize));
+                return;
+            }
+
+            Object[] rows = (Object[]) rowsNode.value;
+            XssFilterTraversal traversal = new XssFilterTraversal(advice, maxDepth, visited);
+            for (int i = from; i < to; i++) {
+                Object value = rows[i];
+                if (value instanceof String) {
+                    rows[i] = advice.filter((String) value);
+                } else {
+                    traversal.push(value, 1, IgnoreKeys.NONE, rowsNode, i);
+                    traversal.run();
+                }
+            }
+
+            if (!traversal.sharedNodes.isEmpty()) {
+                sharedNodes.add(traversal.sharedNodes);
+            }
+        }
+    }
+
+    /**
+     * identity 기준 방문 기록.
+     */
+    private interface VisitedNodes {
+
+        /**
+         * @return 이미 방문한 경우 기존 노드, 처음이면 null
+         */
+        Node putIfAbsent(Object value, Node node);
+    }
+
+    private static final class IdentityVisitedNodes implements VisitedNodes {
+
+        private final Map<Object, Node> nodes = new IdentityHashMap<>();
+
+        @Override
+        public Node putIfAbsent(Object value, Node node) {
+            Node existing = nodes.get(value);
+            if (existing == null) {
+                nodes.put(value, node);
+            }
+            return existing;
+        }
+    }
+
+    /**
+     * 병렬 처리용 방문 기록. identityHashCode 기준으로 잠금을 분산한다.
+     */
+    private static final class ConcurrentVisitedNodes implements VisitedNodes {
+
+        private static final int STRIPES = 64;
+
+        private final IdentityVisitedNodes[] stripes = new IdentityVisitedNodes[STRIPES];
+
+        private ConcurrentVisitedNodes() {
+            for (int i = 0; i < STRIPES; i++) {
+                stripes[i] = new IdentityVisitedNodes();
+            }
+        }
+
+        @Override
+        public Node putIfAbsent(Object value, Node node) {
+            IdentityVisitedNodes stripe = stripes[System.identityHashCode(value) & (STRIPES - 1)];
+            synchronized (stripe) {
+                return stripe.putIfAbsent(value, node);
+            }
+        }
+    }
+
+    private static final class Node {
+
+        private final Object original;
+        private final int depth;
+        private final IgnoreKeys ignoreKeys;
+        private final Node parent;
+        private final Object slot;
+
+        private Object value;
+        private List<Referrer> referrers;
+
+        private Node(Object value, int depth, IgnoreKeys ignoreKeys, Node parent, Object slot) {
+            this.original = value;
+            this.value = value;
+            this.depth = depth;
+            this.ignoreKeys = ignoreKeys;
+            this.parent = parent;
+            this.slot = slot;
+        }
+
+        /**
+         * @return 처음 추가된 참조 위치이면 true
+         */
+        private synchronized boolean addReferrer(Node parent, Object slot) {
+            boolean first = (referrers == null);
+            if (first) {
+                referrers = new ArrayList<>(2);
+            }
+            referrers.add(new Referrer(parent, slot));
+            return first;
+        }
+    }
+
+    private static final class Referrer {
+
+        private final Node parent;
+        private final Object slot;
+
+        private Referrer(Node parent, Object slot) {
+            this.parent = parent;
+            this.slot = slot;
+        }
+    }
+
+}
@@ -9,6 +9,11 @@ import java.lang.annotation.Target;
 @Retention(RetentionPolicy.RUNTIME)
 public @interface ApplyXssFilter {
 
+    /**
+     * 필터에서 제외할 Map 키. '.'으로 하위 Map 키 경로를 지정할 수 있다. (예: {@code "user.password"})
+     * <p>
+     * '.'이 포함된 값은 이전과 같이 최상위 Map의 같은 이름 키({@code "user.password"})에도 적용된다.
+     */
     String[] ignoreKeys() default {};
 
 }
@@ -0,0 +1,211 @@
+package wcyoung.spring.mvc.common.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 고정 크기 링 버퍼({@link ArrayBlockingQueue})와 전용 소비 쓰레드 하나로 구성된 비동기 로그 전달기.
+ * <p>
+ * 로그를 남기는 쓰레드는 {@link #publish(Object)}로 항목을 넣기만 하고, 포맷/출력은 소비 쓰레드에서 일괄 처리한다.
+ * 버퍼가 가득 찼을 때의 동작은 {@link OverflowPolicy}로 정한다.
+ * 출력했거나 버려진 항목은 {@code releaser}에 전달되므로 항목이 가진 버퍼 등을 반납할 수 있다.
+ *
+ * @param <T> 항목 타입
+ */
+public class AsyncLogDispatcher<T> {
+
+    /**
+     * 버퍼가 가득 찼을 때의 동작.
+     */
+    public enum OverflowPolicy {
+        /**
+         * 새 항목을 버리고 {@link AsyncLogDispatcher#getDroppedCount()}를 증가시킨다. 로그를 남기는 쓰레드는 기다리지 않는다.
+         */
+        DROP,
+        /**
+         * 버퍼에 빈 자리가 생길 때까지 로그를 남기는 쓰레드가 기다린다. 로그는 유실되지 않지만 지연이 생길 수 있다.
+         */
+        BLOCK
+    }
+
+    private static final int MAX_BATCH_SIZE = 256;
+    private static final long POLL_INTERVAL_MILLIS = 100;
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 5000;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final String name;
+    private final BlockingQueue<T> buffer;
+    private final OverflowPolicy overflowPolicy;
+    private final Consumer<? super T> consumer;
+    private final Consumer<? super T> releaser;
+    private final Thread worker;
+
+    private final LongAdder publishedCount = new LongAdder();
+    private final LongAdder droppedCount = new LongAdder();
+    private final LongAdder failedCount = new LongAdder();
+
+    private volatile boolean running = true;
+
+    public AsyncLogDispatcher(String name, int bufferSize, OverflowPolicy overflowPolicy, Consumer<? super T> consumer) {
+        this(name, bufferSize, overflowPolicy, consumer, item -> {});
+    }
+
+    /**
+     * @param name 소비 쓰레드 이름({@code <name>-log-dispatcher})과 로그에 사용할 이름
+     * @param bufferSize 버퍼 크기
+     * @param overflowPolicy 버퍼가 가득 찼을 때의 동작
+     * @param consumer 소비 쓰레드에서 항목을 출력한다.
+     * @param releaser 출력이 끝났거나 버려진 항목을 받는다.
+     */
+    public AsyncLogDispatcher(String name, int bufferSize, OverflowPolicy overflowPolicy,
+            Consumer<? super T> consumer, Consumer<? super T> releaser) {
+        this.name = name;
+        this.buffer = new ArrayBlockingQueue<>(bufferSize);
+        this.overflowPolicy = overflowPolicy;
+        this.consumer = consumer;
+        this.releaser = releaser;
+
+        this.worker = new Thread(this::run, name + "-log-dispatcher");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * 항목을 버퍼에 넣는다. 버려진 경우 false이며, 버려진 항목은 바로 {@code releaser}에 전달한다.
+     */
+    public boolean publish(T item) {
+        if (!running) {
+            droppedCount.increment();
+            releaser.accept(item);
+            return false;
+        }
+
+        boolean published;
+        if (overflowPolicy == OverflowPolicy.BLOCK) {
+            published = put(item);
+        } else {
+            published = buffer.offer(item);
+        }
+
+        if (published) {
+            publishedCount.increment();
+        } else {
+            droppedCount.increment();
+            releaser.accept(item);
+        }
+        return published;
+    }
+
+    /**
+     * 종료 중에는 기다리지 않도록 짧은 간격으로 나누어 기다린다.
+     */
+    private boolean put(T item) {
+        try {
+            while (!buffer.offer(item, POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (!running) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void run() {
+        List<T> batch = new ArrayList<>(MAX_BATCH_SIZE);
+
+        while (running) {
+            try {
+                T item = buffer.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                if (item == null) {
+                    continue;
+                }
+                batch.add(item);
+                buffer.drainTo(batch, MAX_BATCH_SIZE - 1);
+                consume(batch);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+
+        buffer.drainTo(batch);
+        consume(batch);
+    }
+
+    private void consume(List<T> batch) {
+        for (T item : batch) {
+            try {
+                consumer.accept(item);
+            } catch (Throwable e) {
+                failedCount.increment();
+                log.warn("failed to write {} log. ({})", name, e.toString());
+            } finally {
+                releaser.accept(item);
+            }
+        }
+        batch.clear();
+    }
+
+    /**
+     * 새 항목을 더 받지 않고, 버퍼에 남은 항목을 모두 출력한 뒤 소비 쓰레드를 종료한다.
+     */
+    public void shutdown() {
+        running = false;
+        try {
+            worker.join(SHUTDOWN_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * 버퍼에 들어간 항목 수.
+     */
+    public long getPublishedCount() {
+        return publishedCount.sum();
+    }
+
+    /**
+     * 버퍼가 가득 차거나 종료 중이어서 버려진 항목 수.
+     */
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    /**
+     * 출력 중 예외가 발생한 항목 수.
+     */
+    public long getFailedCount() {
+        return failedCount.sum();
+    }
+
+    /**
+     * 현재 버퍼에서 출력을 기다리는 항목 수.
+     */
+    public int getPendingCount() {
+        return buffer.size();
+    }
+
+    @Override
+    public String toString() {
+        return "AsyncLogDispatcher [name=" + name + ", policy=" + overflowPolicy + ", published=" + getPublishedCount()
+                + ", dropped=" + getDroppedCount() + ", failed=" + getFailedCount()
+                + ", pending=" + getPendingCount() + "]";
+    }
+
+}
@@ -0,0 +1,141 @@
+package wcyoung.spring.mvc.common.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * HdrHistogram 방식(log-linear bucket)의 잠금 없는 histogram.
+ * <p>
+ * 2의 거듭제곱 구간마다 2^({@code subBucketBits} - 1)개의 bucket을 두어 상대 오차를 2^-({@code subBucketBits} - 1) 이내로 유지한다.
+ * (기본값 7: 64개, 1.6%, 0 ~ 127은 정확한 값)
+ * 기록은 {@link AtomicLongArray} 증가뿐이므로 객체를 생성하지 않으며, 백분위 계산은 조회 시점에만 수행한다.
+ * <p>
+ * {@code highestTrackableValue}보다 큰 값은 마지막 bucket에 기록되며, 최대값({@link #getMax()})은 그대로 기록된다.
+ */
+public class ConcurrentHistogram {
+
+    private static final int DEFAULT_SUB_BUCKET_BITS = 7;
+
+    private final int subBucketBits;
+    private final int subBucketCount;
+    private final int subBucketHalfCount;
+    private final long highestTrackableValue;
+    private final AtomicLongArray counts;
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong totalSum = new AtomicLong();
+    private final AtomicLong maxValue = new AtomicLong();
+
+    public ConcurrentHistogram(long highestTrackableValue) {
+        this(highestTrackableValue, DEFAULT_SUB_BUCKET_BITS);
+    }
+
+    /**
+     * @param subBucketBits 정밀도. 1 줄이면 bucket 수(메모리)와 정밀도가 절반이 된다. (2 ~ 10, 예: 5이면 상대 오차 6.3%)
+     */
+    public ConcurrentHistogram(long highestTrackableValue, int subBucketBits) {
+        if (subBucketBits < 2 || subBucketBits > 10) {
+            throw new IllegalArgumentException("subBucketBits must be between 2 and 10: " + subBucketBits);
+        }
+        this.subBucketBits = subBucketBits;
+        this.subBucketCount = 1 << subBucketBits;
+        this.subBucketHalfCount = subBucketCount >> 1;
+        this.highestTrackableValue = Math.max(highestTrackableValue, subBucketCount);
+        this.counts = new AtomicLongArray(indexOf(this.highestTrackableValue) + 1);
+    }
+
+    /**
+     * 값 하나를 기록한다. 음수는 0으로 기록한다.
+     */
+    public void record(long value) {
+        long recorded = Math.max(value, 0);
+
+        counts.incrementAndGet(indexOf(Math.min(recorded, highestTrackableValue)));
+        totalCount.incrementAndGet();
+        totalSum.addAndGet(recorded);
+
+        long max = maxValue.get();
+        while (recorded > max && !maxValue.compareAndSet(max, recorded)) {
+            max = maxValue.get();
+        }
+    }
+
+    public long getCount() {
+        return totalCount.get();
+    }
+
+    public long getMax() {
+        return maxValue.get();
+    }
+
+    public double getMean() {
+        long count = totalCount.get();
+        return (count == 0) ? 0 : (double) totalSum.get() / count;
+    }
+
+    /**
+     * 백분위 값. (예: 50, 99, 99.9) 해당 bucket의 상한값을 돌려주며 최대값을 넘지 않는다. 기록이 없으면 0.
+     */
+    public long getValueAtPercentile(double percentile) {
+        int length = counts.length();
+        long[] snapshot = new long[length];
+        long count = 0;
+        for (int i = 0; i < length; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+
+        long target = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * count));
+        long cumulative = 0;
+        for (int i = 0; i < length; i++) {
+            cumulative += snapshot[i];
+            if (cumulative >= target) {
+                return Math.min(highestEquivalentValue(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * 기록을 모두 지운다. 동시에 기록 중인 값은 일부 남을 수 있다.
+     */
+    public void reset() {
+        for (int i = 0, length = counts.length(); i < length; i++) {
+            counts.set(i, 0);
+        }
+        totalCount.set(0);
+        totalSum.set(0);
+        maxValue.set(0);
+    }
+
+    int indexOf(long value) {
+        if (value < subBucketCount) {
+            return (int) value;
+        }
+
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int shift = magnitude - subBucketBits + 1;
+        int subBucket = (int) (value >>> shift);
+        return subBucketCount + (shift - 1) * subBucketHalfCount + (subBucket - subBucketHalfCount);
+    }
+
+    long highestEquivalentValue(int index) {
+        if (index < subBucketCount) {
+            return index;
+        }
+
+        int offset = index - subBucketCount;
+        int shift = offset / subBucketHalfCount + 1;
+        long subBucket = offset % subBucketHalfCount + subBucketHalfCount;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount() + ", p50=" + getValueAtPercentile(50) + ", p99=" + getValueAtPercentile(99)
+                + ", p999=" + getValueAtPercentile(99.9) + ", max=" + getMax();
+    }
+
+}
@@ -0,0 +1,222 @@
+package wcyoung.spring.mvc.filter;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+
+/**
+ * 로그용 본문 복사 버퍼. 고정 크기이며 넘치는 부분은 버린다.
+ * <p>
+ * byte 단위(출력 스트림)와 문자 단위(writer) 중 처음 기록된 방식으로만 사용한다.
+ * {@link CaptureBufferPool}에서 빌려온 경우 {@link #release()}로 반납한다.
+ */
+final class CaptureBuffer {
+
+    private static final int MAX_REUSABLE_CHARS = 64 * 1024;
+
+    private final CaptureBufferPool pool;
+    private final byte[] bytes;
+    private char[] chars;
+    private Decoding decoding;
+    private boolean characterMode;
+    private int count;
+
+    CaptureBuffer(int capacity, CaptureBufferPool pool) {
+        this.pool = pool;
+        this.bytes = new byte[capacity];
+    }
+
+    int capacity() {
+        return bytes.length;
+    }
+
+    int size() {
+        return count;
+    }
+
+    void write(int b) {
+        if (!characterMode && count < bytes.length) {
+            bytes[count++] = (byte) b;
+        }
+    }
+
+    void write(byte[] b, int off, int len) {
+        if (characterMode) {
+            return;
+        }
+
+        int length = Math.min(bytes.length - count, len);
+        if (length > 0) {
+            System.arraycopy(b, off, bytes, count, length);
+            count += length;
+        }
+    }
+
+    void write(char[] c, int off, int len) {
+        if (startCharacterMode()) {
+            int length = Math.min(chars.length - count, len);
+            if (length > 0) {
+                System.arraycopy(c, off, chars, count, length);
+                count += length;
+            }
+        }
+    }
+
+    void write(String s, int off, int len) {
+        if (startCharacterMode()) {
+            int length = Math.min(chars.length - count, len);
+            if (length > 0) {
+                s.getChars(off, off + length, chars, count);
+                count += length;
+            }
+        }
+    }
+
+    void writeChar(int c) {
+        if (startCharacterMode() && count < chars.length) {
+            chars[count++] = (char) c;
+        }
+    }
+
+    /**
+     * 문자 버퍼는 처음 필요할 때 만들고, pool에 반납된 뒤에도 유지한다.
+     */
+    private boolean startCharacterMode() {
+        if (!characterMode) {
+            if (count > 0) {
+                return false;
+            }
+            if (chars == null) {
+                chars = new char[bytes.length];
+            }
+            characterMode = true;
+        }
+        return true;
+    }
+
+    /**
+     * 버퍼 내용을 문자열을 만들지 않고 {@link CharSequence}로 읽는다.
+     * <p>
+     * writer로 기록한 경우와 ISO-8859-1은 버퍼를 그대로 감싸고, 그 외 encoding은 이 버퍼가 들고 있는
+     * (pool에 반납된 뒤에도 유지되는) 문자 버퍼에 디코딩한다. 쓰레드에 상태를 남기지 않으므로 재배포시 class loader를 붙잡지 않는다.
+     * 결과는 다음 호출이나 반납 전까지만 유효하다. 버퍼 끝에서 잘린 멀티바이트 문자는 버린다.
+     */
+    CharSequence toCharSequence(String characterEncoding) throws UnsupportedEncodingException {
+        if (characterMode) {
+            return CharBuffer.wrap(chars, 0, count);
+        }
+
+        Charset charset = forName((characterEncoding != null) ? characterEncoding : "ISO-8859-1");
+        if (StandardCharsets.ISO_8859_1.equals(charset)) {
+            return new Latin1Sequence(bytes, 0, count);
+        }
+        if (decoding == null) {
+            decoding = new Decoding();
+        }
+        return decoding.decode(charset, bytes, count);
+    }
+
+    private static Charset forName(String characterEncoding) throws UnsupportedEncodingException {
+        try {
+            return Charset.forName(characterEncoding);
+        } catch (IllegalCharsetNameException | UnsupportedCharsetException e) {
+            throw new UnsupportedEncodingException(characterEncoding);
+        }
+    }
+
+    byte[] toByteArray(String characterEncoding) {
+        if (characterMode) {
+            try {
+                return new String(chars, 0, count).getBytes((characterEncoding != null) ? characterEncoding : "ISO-8859-1");
+            } catch (UnsupportedEncodingException e) {
+                return new String(chars, 0, count).getBytes(StandardCharsets.ISO_8859_1);
+            }
+        }
+
+        byte[] copy = new byte[count];
+        System.arraycopy(bytes, 0, copy, 0, count);
+        return copy;
+    }
+
+    void reset() {
+        count = 0;
+        characterMode = false;
+    }
+
+    /**
+     * pool에서 빌려온 버퍼이면 반납한다. 반납 후에는 사용하지 않아야 한다.
+     */
+    void release() {
+        if (pool != null) {
+            pool.release(this);
+        }
+    }
+
+    private static final class Decoding {
+
+        private CharsetDecoder decoder;
+        private CharBuffer chars = CharBuffer.allocate(1024);
+
+        CharSequence decode(Charset charset, byte[] bytes, int count) {
+            if (decoder == null || !decoder.charset().equals(charset)) {
+                decoder = charset.newDecoder()
+                        .onMalformedInput(CodingErrorAction.REPLACE)
+                        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            }
+
+            int capacity = (int) Math.ceil(count * (double) decoder.maxCharsPerByte());
+            if (chars.capacity() < capacity || chars.capacity() > Math.max(capacity, MAX_REUSABLE_CHARS)) {
+                chars = CharBuffer.allocate(Math.max(capacity, 1024));
+            }
+
+            chars.clear();
+            decoder.reset();
+            decoder.decode(ByteBuffer.wrap(bytes, 0, count), chars, false);
+            chars.flip();
+            return chars;
+        }
+    }
+
+    /**
+     * ISO-8859-1 byte 배열을 복사 없이 문자로 읽는다.
+     */
+    private static final class Latin1Sequence implements CharSequence {
+
+        private final byte[] bytes;
+        private final int offset;
+        private final int length;
+
+        Latin1Sequence(byte[] bytes, int offset, int length) {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (bytes[offset + index] & 0xff);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new Latin1Sequence(bytes, offset + start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+        }
+    }
+
+}
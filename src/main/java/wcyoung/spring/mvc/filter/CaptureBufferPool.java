@@ -0,0 +1,63 @@
+package wcyoung.spring.mvc.filter;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * {@link CaptureBuffer} 재사용 pool. 고정 개수의 slot을 CAS로 빌리고 반납하므로 잠금과 객체 생성이 없다.
+ * <p>
+ * 빈 slot이 없으면 새 버퍼를 만들고, 반납시 slot이 가득 차 있으면 버린다.
+ */
+final class CaptureBufferPool {
+
+    private final int bufferSize;
+    private final AtomicReferenceArray<CaptureBuffer> slots;
+    private final AtomicLong createdCount = new AtomicLong();
+
+    CaptureBufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.slots = new AtomicReferenceArray<>(Math.max(maxPooled, 0));
+    }
+
+    CaptureBuffer acquire() {
+        int length = slots.length();
+        int start = (length == 0) ? 0 : (int) (Thread.currentThread().getId() % length);
+
+        for (int i = 0; i < length; i++) {
+            int index = (start + i) % length;
+            CaptureBuffer buffer = slots.get(index);
+            if (buffer != null && slots.compareAndSet(index, buffer, null)) {
+                return buffer;
+            }
+        }
+
+        createdCount.incrementAndGet();
+        return new CaptureBuffer(bufferSize, this);
+    }
+
+    void release(CaptureBuffer buffer) {
+        buffer.reset();
+
+        int length = slots.length();
+        int start = (length == 0) ? 0 : (int) (Thread.currentThread().getId() % length);
+
+        for (int i = 0; i < length; i++) {
+            int index = (start + i) % length;
+            if (slots.get(index) == null && slots.compareAndSet(index, null, buffer)) {
+                return;
+            }
+        }
+    }
+
+    int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * pool에 여유가 없어 새로 만든 버퍼 수.
+     */
+    long getCreatedCount() {
+        return createdCount.get();
+    }
+
+}
@@ -0,0 +1,261 @@
+package wcyoung.spring.mvc.filter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+
+/**
+ * 애플리케이션이 읽은 요청 본문의 앞부분 최대 {@code contentCaptureLimit} byte만 복사해 두는 wrapper.
+ * <p>
+ * {@link org.springframework.web.util.ContentCachingRequestWrapper}(request, limit)와 같은 동작이지만,
+ * 복사 버퍼를 본문이 처음 읽힐 때 할당(또는 pool에서 대여)하므로 본문이 없는 요청은 버퍼를 쓰지 않는다.
+ * form POST는 파라미터 조회시 파라미터를 다시 인코딩해서 기록한다.
+ * <p>
+ * {@link RequestAndResponseLoggingFilter}가 만든 wrapper의 버퍼는 로그를 남긴 뒤 pool에 반납되며,
+ * 그 뒤에는 {@link #getContentAsByteArray()}가 빈 배열을 반환한다.
+ * (이 클래스는 {@link org.springframework.web.util.ContentCachingRequestWrapper}의 하위 클래스가 아니다.
+ * filter의 hook 인자로 {@code ContentCachingRequestWrapper}를 기대하는 코드는 deprecated hook을 통해서만 동작한다.)
+ */
+public class ContentCapturingRequestWrapper extends HttpServletRequestWrapper {
+
+    private static final String FORM_CONTENT_TYPE = "application/x-www-form-urlencoded";
+
+    private final int contentCaptureLimit;
+    private final CaptureBufferPool bufferPool;
+    private CaptureBuffer buffer;
+    private boolean detached;
+    private long contentSize = 0;
+
+    private ServletInputStream inputStream;
+    private BufferedReader reader;
+
+    public ContentCapturingRequestWrapper(HttpServletRequest request, int contentCaptureLimit) {
+        super(request);
+        this.contentCaptureLimit = contentCaptureLimit;
+        this.bufferPool = null;
+    }
+
+    ContentCapturingRequestWrapper(HttpServletRequest request, CaptureBufferPool bufferPool) {
+        super(request);
+        this.contentCaptureLimit = bufferPool.getBufferSize();
+        this.bufferPool = bufferPool;
+    }
+
+    @Override
+    public ServletInputStream getInputStream() throws IOException {
+        if (inputStream == null) {
+            inputStream = new TeeServletInputStream(getRequest().getInputStream());
+        }
+        return inputStream;
+    }
+
+    @Override
+    public String getCharacterEncoding() {
+        String characterEncoding = super.getCharacterEncoding();
+        return (characterEncoding != null) ? characterEncoding : StandardCharsets.ISO_8859_1.name();
+    }
+
+    @Override
+    public BufferedReader getReader() throws IOException {
+        if (reader == null) {
+            reader = new BufferedReader(new InputStreamReader(getInputStream(), getCharacterEncoding()));
+        }
+        return reader;
+    }
+
+    @Override
+    public String getParameter(String name) {
+        captureFormParameters();
+        return super.getParameter(name);
+    }
+
+    @Override
+    public Map<String, String[]> getParameterMap() {
+        captureFormParameters();
+        return super.getParameterMap();
+    }
+
+    @Override
+    public Enumeration<String> getParameterNames() {
+        captureFormParameters();
+        return super.getParameterNames();
+    }
+
+    @Override
+    public String[] getParameterValues(String name) {
+        captureFormParameters();
+        return super.getParameterValues(name);
+    }
+
+    /**
+     * 복사해 둔 요청 본문 앞부분의 사본.
+     */
+    public byte[] getContentAsByteArray() {
+        return (buffer != null) ? buffer.toByteArray(getCharacterEncoding()) : new byte[0];
+    }
+
+    /**
+     * 요청 본문 전체 길이. 읽은 길이와 Content-Length 중 큰 값이며, 둘 다 없으면 0.
+     */
+    public long getContentSize() {
+        return Math.max(contentSize, getContentLengthLong());
+    }
+
+    public int getContentCaptureLimit() {
+        return contentCaptureLimit;
+    }
+
+    CaptureBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * 복사 버퍼의 소유권을 넘긴다. 이후 읽는 본문은 더 이상 복사하지 않는다.
+     */
+    CaptureBuffer detachBuffer() {
+        CaptureBuffer detachedBuffer = buffer;
+        buffer = null;
+        detached = true;
+        return detachedBuffer;
+    }
+
+    /**
+     * 복사 버퍼를 pool에 반납한다.
+     */
+    void releaseBuffer() {
+        CaptureBuffer releasedBuffer = detachBuffer();
+        if (releasedBuffer != null) {
+            releasedBuffer.release();
+        }
+    }
+
+    private CaptureBuffer buffer() {
+        if (buffer == null && !detached) {
+            buffer = (bufferPool != null) ? bufferPool.acquire() : new CaptureBuffer(contentCaptureLimit, null);
+        }
+        return buffer;
+    }
+
+    private boolean isFormPost() {
+        String contentType = getContentType();
+        return contentType != null && contentType.contains(FORM_CONTENT_TYPE) && "POST".equals(getMethod());
+    }
+
+    private void captureFormParameters() {
+        if (detached || (buffer != null && buffer.size() > 0) || contentSize > 0 || !isFormPost()) {
+            return;
+        }
+
+        Map<String, String[]> form = super.getParameterMap();
+        if (form.isEmpty()) {
+            return;
+        }
+
+        try {
+            String characterEncoding = getCharacterEncoding();
+            CaptureBuffer buffer = buffer();
+            Iterator<Entry<String, String[]>> entries = form.entrySet().iterator();
+            while (entries.hasNext()) {
+                Entry<String, String[]> entry = entries.next();
+                String[] values = entry.getValue();
+                for (int i = 0; i < values.length; i++) {
+                    writeFormValue(buffer, URLEncoder.encode(entry.getKey(), characterEncoding));
+                    if (values[i] != null) {
+                        writeFormValue(buffer, "=");
+                        writeFormValue(buffer, URLEncoder.encode(values[i], characterEncoding));
+                    }
+                    if (i + 1 < values.length) {
+                        writeFormValue(buffer, "&");
+                    }
+                }
+                if (entries.hasNext()) {
+                    writeFormValue(buffer, "&");
+                }
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("Failed to write request parameters to captured content", e);
+        }
+    }
+
+    private void writeFormValue(CaptureBuffer buffer, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.ISO_8859_1);
+        buffer.write(bytes, 0, bytes.length);
+        contentSize += bytes.length;
+    }
+
+    private class TeeServletInputStream extends ServletInputStream {
+
+        private final ServletInputStream source;
+
+        private TeeServletInputStream(ServletInputStream source) {
+            this.source = source;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = source.read();
+            if (b != -1) {
+                contentSize++;
+                CaptureBuffer buffer = buffer();
+                if (buffer != null) {
+                    buffer.write(b);
+                }
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = source.read(b, off, len);
+            if (count > 0) {
+                contentSize += count;
+                CaptureBuffer buffer = buffer();
+                if (buffer != null) {
+                    buffer.write(b, off, count);
+                }
+            }
+            return count;
+        }
+
+        @Override
+        public int readLine(byte[] b, int off, int len) throws IOException {
+            int count = source.readLine(b, off, len);
+            if (count > 0) {
+                contentSize += count;
+                CaptureBuffer buffer = buffer();
+                if (buffer != null) {
+                    buffer.write(b, off, count);
+                }
+            }
+            return count;
+        }
+
+        @Override
+        public boolean isFinished() {
+            return source.isFinished();
+        }
+
+        @Override
+        public boolean isReady() {
+            return source.isReady();
+        }
+
+        @Override
+        public void setReadListener(ReadListener readListener) {
+            source.setReadListener(readListener);
+        }
+    }
+
+}
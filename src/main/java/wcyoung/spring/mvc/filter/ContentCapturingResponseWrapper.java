@@ -0,0 +1,230 @@
+package wcyoung.spring.mvc.filter;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * 응답 본문을 실제 출력 스트림(또는 writer)에 바로 쓰면서 앞부분 최대 {@code contentCaptureLimit}만 복사해 두는 wrapper.
+ * <p>
+ * {@link org.springframework.web.util.ContentCachingResponseWrapper}와 달리 응답 전체를 메모리에 모으지 않으므로
+ * 응답 크기와 상관없이 요청당 메모리 사용량이 제한되고, 첫 byte 전송도 지연되지 않는다.
+ * {@link #getWriter()}도 컨테이너의 writer를 그대로 감싸므로 {@code copyBodyToResponse()} 같은 후처리가 필요 없고,
+ * 비동기 요청에서 다른 쓰레드가 출력하는 경우에도 그대로 동작한다.
+ * <p>
+ * 복사 버퍼는 본문이 처음 출력될 때 할당(또는 pool에서 대여)한다.
+ */
+public class ContentCapturingResponseWrapper extends HttpServletResponseWrapper {
+
+    private final int contentCaptureLimit;
+    private final CaptureBufferPool bufferPool;
+    private CaptureBuffer buffer;
+    private boolean detached;
+    private long contentSize = 0;
+
+    private ServletOutputStream outputStream;
+    private PrintWriter writer;
+
+    public ContentCapturingResponseWrapper(HttpServletResponse response, int contentCaptureLimit) {
+        super(response);
+        this.contentCaptureLimit = contentCaptureLimit;
+        this.bufferPool = null;
+    }
+
+    ContentCapturingResponseWrapper(HttpServletResponse response, CaptureBufferPool bufferPool) {
+        super(response);
+        this.contentCaptureLimit = bufferPool.getBufferSize();
+        this.bufferPool = bufferPool;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        if (outputStream == null) {
+            outputStream = new TeeServletOutputStream(getResponse().getOutputStream());
+        }
+        return outputStream;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        if (writer == null) {
+            writer = new PrintWriter(new TeeWriter(getResponse().getWriter()));
+        }
+        return writer;
+    }
+
+    @Override
+    public void resetBuffer() {
+        super.resetBuffer();
+        resetCapturedContent();
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        resetCapturedContent();
+    }
+
+    private void resetCapturedContent() {
+        if (buffer != null) {
+            buffer.reset();
+        }
+        contentSize = 0;
+    }
+
+    /**
+     * 복사해 둔 응답 본문 앞부분의 사본. {@link #getWriter()}로 출력한 경우 응답의 character encoding으로 변환한다.
+     */
+    public byte[] getContentAsByteArray() {
+        return (buffer != null) ? buffer.toByteArray(getCharacterEncoding()) : new byte[0];
+    }
+
+    /**
+     * 실제로 출력된 응답 본문 전체 길이. {@link #getWriter()}로 출력한 경우 문자 수.
+     */
+    public long getContentSize() {
+        return contentSize;
+    }
+
+    public int getContentCaptureLimit() {
+        return contentCaptureLimit;
+    }
+
+    /**
+     * 복사 버퍼. 출력된 본문이 없으면 null.
+     */
+    CaptureBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * 복사 버퍼의 소유권을 넘긴다. 이후 출력은 더 이상 복사하지 않는다.
+     */
+    CaptureBuffer detachBuffer() {
+        CaptureBuffer detachedBuffer = buffer;
+        buffer = null;
+        detached = true;
+        return detachedBuffer;
+    }
+
+    /**
+     * 복사 버퍼를 pool에 반납한다. 이후 출력은 더 이상 복사하지 않는다.
+     */
+    void releaseBuffer() {
+        CaptureBuffer releasedBuffer = detachBuffer();
+        if (releasedBuffer != null) {
+            releasedBuffer.release();
+        }
+    }
+
+    private CaptureBuffer buffer() {
+        if (buffer == null && !detached) {
+            buffer = (bufferPool != null) ? bufferPool.acquire() : new CaptureBuffer(contentCaptureLimit, null);
+        }
+        return buffer;
+    }
+
+    private class TeeServletOutputStream extends ServletOutputStream {
+
+        private final ServletOutputStream target;
+
+        private TeeServletOutputStream(ServletOutputStream target) {
+            this.target = target;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            target.write(b);
+            contentSize++;
+            CaptureBuffer buffer = buffer();
+            if (buffer != null) {
+                buffer.write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            target.write(b, off, len);
+            contentSize += len;
+            CaptureBuffer buffer = buffer();
+            if (buffer != null) {
+                buffer.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            target.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            target.close();
+        }
+
+        @Override
+        public boolean isReady() {
+            return target.isReady();
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            target.setWriteListener(writeListener);
+        }
+    }
+
+    private class TeeWriter extends Writer {
+
+        private final Writer target;
+
+        private TeeWriter(Writer target) {
+            this.target = target;
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            target.write(c);
+            contentSize++;
+            CaptureBuffer buffer = buffer();
+            if (buffer != null) {
+                buffer.writeChar(c);
+            }
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            target.write(cbuf, off, len);
+            contentSize += len;
+            CaptureBuffer buffer = buffer();
+            if (buffer != null) {
+                buffer.write(cbuf, off, len);
+            }
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            target.write(str, off, len);
+            contentSize += len;
+            CaptureBuffer buffer = buffer();
+            if (buffer != null) {
+                buffer.write(str, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            target.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            target.close();
+        }
+    }
+
+}
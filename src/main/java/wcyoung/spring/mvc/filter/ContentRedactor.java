@@ -0,0 +1,41 @@
+package wcyoung.spring.mvc.filter;
+
+/**
+ * 로그로 남길 본문에서 비밀번호, 토큰 같은 민감한 값을 가린다.
+ * <p>
+ * 복사 버퍼를 그대로 감싼 {@link CharSequence}를 받아 결과를 {@code out}에 바로 기록하므로,
+ * 구현체는 본문을 한 번만 훑고 중간 문자열을 만들지 않아야 한다.
+ *
+ * @see SensitiveKeyRedactor
+ */
+public interface ContentRedactor {
+
+    /**
+     * 본문을 그대로 기록한다.
+     */
+    ContentRedactor NONE = (content, contentType, out) -> out.append(content);
+
+    /**
+     * @param content 복사된 본문 (잘렸을 수 있음)
+     * @param contentType 본문의 Content-Type. 없으면 null
+     * @param out 결과를 기록할 버퍼
+     */
+    void redact(CharSequence content, String contentType, StringBuilder out);
+
+    /**
+     * 쿼리 문자열({@code key=value&...})에서 민감한 값을 가린다. 기본 구현은 그대로 반환한다.
+     *
+     * @param queryString 쿼리 문자열. 없으면 null
+     */
+    default String redactQuery(String queryString) {
+        return queryString;
+    }
+
+    /**
+     * 헤더값에서 민감한 값을 가린다. 기본 구현은 그대로 반환한다.
+     */
+    default String redactHeader(String headerName, String headerValue) {
+        return headerValue;
+    }
+
+}
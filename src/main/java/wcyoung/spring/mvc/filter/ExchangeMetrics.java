@@ -0,0 +1,181 @@
+package wcyoung.spring.mvc.filter;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import wcyoung.spring.mvc.common.util.ConcurrentHistogram;
+
+/**
+ * handler pattern 하나의 처리 시간/상태 코드 구간/요청·응답 크기 histogram.
+ * <p>
+ * 처리 시간은 μs 단위로 기록한다. 상태 코드 구간별 histogram은 해당 구간의 응답이 처음 기록될 때 생성된다.
+ * <p>
+ * pattern 수만큼 만들어지므로 정밀도를 낮춰 메모리를 줄인다. 전체 처리 시간은 상대 오차 3.1%,
+ * 상태 코드 구간별 처리 시간과 요청·응답 크기는 6.3% 이내이며, pattern 하나가 최대 약 34KB(상태 코드 구간이 모두 기록된 경우)를 사용한다.
+ */
+public class ExchangeMetrics implements ExchangeMetricsMXBean {
+
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.HOURS.toMicros(1);
+    private static final long HIGHEST_TRACKABLE_BYTES = 1L << 32;
+    private static final int LATENCY_PRECISION = 6;
+    private static final int DETAIL_PRECISION = 5;
+    private static final String[] STATUS_CLASSES = { "1xx", "2xx", "3xx", "4xx", "5xx" };
+
+    private final String pattern;
+    private final ConcurrentHistogram latency = new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, LATENCY_PRECISION);
+    private final AtomicReferenceArray<ConcurrentHistogram> statusClassLatencies =
+            new AtomicReferenceArray<>(STATUS_CLASSES.length);
+    private final ConcurrentHistogram requestBytes = new ConcurrentHistogram(HIGHEST_TRACKABLE_BYTES, DETAIL_PRECISION);
+    private final ConcurrentHistogram responseBytes = new ConcurrentHistogram(HIGHEST_TRACKABLE_BYTES, DETAIL_PRECISION);
+
+    ExchangeMetrics(String pattern) {
+        this.pattern = pattern;
+    }
+
+    /**
+     * @param requestBytes 알 수 없으면 음수
+     * @param responseBytes 알 수 없으면 음수
+     */
+    void record(long micros, int status, long requestBytes, long responseBytes) {
+        latency.record(micros);
+
+        int statusClass = status / 100 - 1;
+        if (statusClass >= 0 && statusClass < STATUS_CLASSES.length) {
+            getStatusClassLatency(statusClass).record(micros);
+        }
+
+        if (requestBytes >= 0) {
+            this.requestBytes.record(requestBytes);
+        }
+        if (responseBytes >= 0) {
+            this.responseBytes.record(responseBytes);
+        }
+    }
+
+    private ConcurrentHistogram getStatusClassLatency(int statusClass) {
+        ConcurrentHistogram histogram = statusClassLatencies.get(statusClass);
+        if (histogram == null) {
+            statusClassLatencies.compareAndSet(statusClass, null, new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, DETAIL_PRECISION));
+            histogram = statusClassLatencies.get(statusClass);
+        }
+        return histogram;
+    }
+
+    @Override
+    public String getPattern() {
+        return pattern;
+    }
+
+    @Override
+    public long getCount() {
+        return latency.getCount();
+    }
+
+    @Override
+    public double getMeanMillis() {
+        return latency.getMean() / 1000.0;
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return toMillis(latency.getMax());
+    }
+
+    @Override
+    public double getP50Millis() {
+        return toMillis(latency.getValueAtPercentile(50));
+    }
+
+    @Override
+    public double getP99Millis() {
+        return toMillis(latency.getValueAtPercentile(99));
+    }
+
+    @Override
+    public double getP999Millis() {
+        return toMillis(latency.getValueAtPercentile(99.9));
+    }
+
+    @Override
+    public Map<String, Long> getStatusClassCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (int i = 0; i < STATUS_CLASSES.length; i++) {
+            ConcurrentHistogram histogram = statusClassLatencies.get(i);
+            if (histogram != null) {
+                counts.put(STATUS_CLASSES[i], histogram.getCount());
+            }
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Double> getStatusClassP99Millis() {
+        Map<String, Double> p99 = new LinkedHashMap<>();
+        for (int i = 0; i < STATUS_CLASSES.length; i++) {
+            ConcurrentHistogram histogram = statusClassLatencies.get(i);
+            if (histogram != null) {
+                p99.put(STATUS_CLASSES[i], toMillis(histogram.getValueAtPercentile(99)));
+            }
+        }
+        return p99;
+    }
+
+    @Override
+    public long getRequestBytesP50() {
+        return requestBytes.getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getRequestBytesP99() {
+        return requestBytes.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getRequestBytesMax() {
+        return requestBytes.getMax();
+    }
+
+    @Override
+    public long getResponseBytesP50() {
+        return responseBytes.getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getResponseBytesP99() {
+        return responseBytes.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getResponseBytesMax() {
+        return responseBytes.getMax();
+    }
+
+    @Override
+    public void reset() {
+        latency.reset();
+        for (int i = 0; i < STATUS_CLASSES.length; i++) {
+            ConcurrentHistogram histogram = statusClassLatencies.get(i);
+            if (histogram != null) {
+                histogram.reset();
+            }
+        }
+        requestBytes.reset();
+        responseBytes.reset();
+    }
+
+    private static double toMillis(long micros) {
+        return micros / 1000.0;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + pattern + "] count=" + getCount()
+                + String.format(", p50=%.1fms, p99=%.1fms, p999=%.1fms, max=%.1fms",
+                        getP50Millis(), getP99Millis(), getP999Millis(), getMaxMillis())
+                + ", status=" + getStatusClassCounts()
+                + ", requestBytes(p99)=" + getRequestBytesP99() + ", responseBytes(p99)=" + getResponseBytesP99();
+    }
+
+}
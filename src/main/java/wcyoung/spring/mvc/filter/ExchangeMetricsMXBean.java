@@ -0,0 +1,48 @@
+package wcyoung.spring.mvc.filter;
+
+import java.util.Map;
+
+/**
+ * handler pattern 하나의 요청 처리 통계. 시간은 ms, 크기는 byte 단위.
+ */
+public interface ExchangeMetricsMXBean {
+
+    String getPattern();
+
+    long getCount();
+
+    double getMeanMillis();
+
+    double getMaxMillis();
+
+    double getP50Millis();
+
+    double getP99Millis();
+
+    double getP999Millis();
+
+    /**
+     * 상태 코드 구간(2xx, 4xx 등)별 요청 수.
+     */
+    Map<String, Long> getStatusClassCounts();
+
+    /**
+     * 상태 코드 구간별 p99 처리 시간.
+     */
+    Map<String, Double> getStatusClassP99Millis();
+
+    long getRequestBytesP50();
+
+    long getRequestBytesP99();
+
+    long getRequestBytesMax();
+
+    long getResponseBytesP50();
+
+    long getResponseBytesP99();
+
+    long getResponseBytesMax();
+
+    void reset();
+
+}
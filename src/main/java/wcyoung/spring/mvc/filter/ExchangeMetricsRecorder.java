@@ -0,0 +1,179 @@
+package wcyoung.spring.mvc.filter;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * handler pattern({@link org.springframework.web.servlet.HandlerMapping#BEST_MATCHING_PATTERN_ATTRIBUTE})별
+ * {@link ExchangeMetrics}를 모아 JMX로 노출한다.
+ * <p>
+ * 실제 URI 대신 pattern을 key로 사용하므로 항목 수가 handler 수 이내로 제한되며, 매핑되지 않은 요청은
+ * {@link #UNMAPPED}, {@code maxPatterns}를 넘는 pattern은 {@link #OTHER}로 모은다.
+ * pattern별 histogram이 만들어진 뒤에는 기록시 객체를 생성하지 않는다.
+ */
+public class ExchangeMetricsRecorder implements InitializingBean, DisposableBean {
+
+    public static final String UNMAPPED = "UNMAPPED";
+    public static final String OTHER = "OTHER";
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final ConcurrentMap<String, ExchangeMetrics> metrics = new ConcurrentHashMap<>();
+
+    private int maxPatterns = 200;
+    private String jmxDomain = "wcyoung.spring.mvc";
+    private boolean registerMBeans = false;
+    private String jmxInstance = Integer.toHexString(System.identityHashCode(this));
+    private long dumpIntervalSeconds = 0;
+
+    private MBeanServer mBeanServer;
+    private final Set<ObjectName> registeredMBeans = ConcurrentHashMap.newKeySet();
+    private ScheduledExecutorService dumpExecutor;
+
+    /**
+     * 개별로 기록할 최대 pattern 수. 초과하는 pattern은 {@link #OTHER}로 모은다. (기본값: 200)
+     * pattern 하나가 최대 약 34KB를 사용한다.
+     */
+    public void setMaxPatterns(int maxPatterns) {
+        this.maxPatterns = maxPatterns;
+    }
+
+    /**
+     * MBean ObjectName의 domain. (기본값: wcyoung.spring.mvc)
+     */
+    public void setJmxDomain(String jmxDomain) {
+        this.jmxDomain = jmxDomain;
+    }
+
+    /**
+     * pattern별 {@link ExchangeMetricsMXBean} 등록 여부. 등록한 MBean은 {@link #destroy()}에서 해제된다. (기본값: false)
+     */
+    public void setRegisterMBeans(boolean registerMBeans) {
+        this.registerMBeans = registerMBeans;
+    }
+
+    /**
+     * 같은 JVM의 여러 filter/애플리케이션을 구분하는 ObjectName의 instance 값. (기본값: 인스턴스마다 다른 값)
+     */
+    public void setJmxInstance(String jmxInstance) {
+        this.jmxInstance = jmxInstance;
+    }
+
+    /**
+     * 0보다 크면 이 주기(초)마다 모든 pattern의 통계를 info 로그로 남긴다. (기본값: 0)
+     */
+    public void setDumpIntervalSeconds(long dumpIntervalSeconds) {
+        this.dumpIntervalSeconds = dumpIntervalSeconds;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (dumpIntervalSeconds > 0) {
+            dumpExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "exchange-metrics-dump");
+                thread.setDaemon(true);
+                return thread;
+            });
+            dumpExecutor.scheduleAtFixedRate(this::dump, dumpIntervalSeconds, dumpIntervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (dumpExecutor != null) {
+            dumpExecutor.shutdown();
+        }
+        for (ObjectName objectName : registeredMBeans) {
+            registeredMBeans.remove(objectName);
+            try {
+                if (mBeanServer.isRegistered(objectName)) {
+                    mBeanServer.unregisterMBean(objectName);
+                }
+            } catch (Exception e) {
+                log.debug("failed to unregister exchange metrics. ({})", e.toString());
+            }
+        }
+    }
+
+    /**
+     * @param pattern handler pattern. null이면 {@link #UNMAPPED}
+     * @param requestBytes 알 수 없으면 음수
+     * @param responseBytes 알 수 없으면 음수
+     */
+    public void record(String pattern, long nanos, int status, long requestBytes, long responseBytes) {
+        getMetrics(pattern == null ? UNMAPPED : pattern)
+                .record(TimeUnit.NANOSECONDS.toMicros(nanos), status, requestBytes, responseBytes);
+    }
+
+    public Collection<ExchangeMetrics> getMetrics() {
+        return Collections.unmodifiableCollection(metrics.values());
+    }
+
+    /**
+     * 모든 pattern의 통계를 info 로그로 남긴다.
+     */
+    public void dump() {
+        for (ExchangeMetrics exchangeMetrics : metrics.values()) {
+            if (exchangeMetrics.getCount() > 0) {
+                log.info("{}", exchangeMetrics);
+            }
+        }
+    }
+
+    private ExchangeMetrics getMetrics(String pattern) {
+        ExchangeMetrics exchangeMetrics = metrics.get(pattern);
+        if (exchangeMetrics != null) {
+            return exchangeMetrics;
+        }
+
+        String key = (metrics.size() < maxPatterns) ? pattern : OTHER;
+        exchangeMetrics = metrics.get(key);
+        if (exchangeMetrics == null) {
+            ExchangeMetrics created = new ExchangeMetrics(key);
+            exchangeMetrics = metrics.putIfAbsent(key, created);
+            if (exchangeMetrics == null) {
+                exchangeMetrics = created;
+                register(created);
+            }
+        }
+        return exchangeMetrics;
+    }
+
+    private void register(ExchangeMetrics exchangeMetrics) {
+        if (!registerMBeans) {
+            return;
+        }
+
+        try {
+            if (mBeanServer == null) {
+                mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            }
+            ObjectName objectName = getObjectName(exchangeMetrics.getPattern());
+            mBeanServer.registerMBean(exchangeMetrics, objectName);
+            registeredMBeans.add(objectName);
+        } catch (Exception e) {
+            log.warn("failed to register exchange metrics [{}]. ({})", exchangeMetrics.getPattern(), e.toString());
+        }
+    }
+
+    private ObjectName getObjectName(String pattern) throws Exception {
+        return new ObjectName(jmxDomain + ":type=ExchangeMetrics,instance=" + ObjectName.quote(jmxInstance)
+                + ",pattern=" + ObjectName.quote(pattern));
+    }
+
+}
@@ -0,0 +1,361 @@
+package wcyoung.spring.mvc.filter;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import wcyoung.spring.mvc.filter.RequestAndResponseLoggingFilter.LogFormat;
+
+/**
+ * {@link ExchangeSnapshot} 하나를 한 줄짜리 구조화 로그(JSON 또는 key=value)로 변환한다.
+ * <p>
+ * 쓰레드별 {@link StringBuilder}를 재사용하므로 레코드마다 버퍼를 새로 늘리지 않는다.
+ * 본문은 복사 버퍼에서 바로 {@link ContentRedactor}를 거쳐 기록하므로 본문 전체를 문자열로 만들지 않는다.
+ */
+final class ExchangeRecordFormatter {
+
+    private static final ReusableStringBuilder RECORD_BUILDERS = new ReusableStringBuilder(1024);
+    private static final ReusableStringBuilder CONTENT_BUILDERS = new ReusableStringBuilder(1024);
+
+    private final LogFormat format;
+    private final Set<String> headerNames;
+    private final Predicate<String> visibleContentType;
+    private final ContentRedactor contentRedactor;
+
+    /**
+     * @param format {@link LogFormat#JSON} 또는 {@link LogFormat#KEY_VALUE}
+     * @param headerNames 기록할 헤더명(소문자). null이면 모든 헤더를 기록한다.
+     * @param visibleContentType 본문을 문자열로 기록할 Content-Type 여부
+     * @param contentRedactor 문자열로 기록할 본문, 쿼리 문자열, 헤더값에 적용할 {@link ContentRedactor}
+     */
+    ExchangeRecordFormatter(LogFormat format, Set<String> headerNames, Predicate<String> visibleContentType,
+            ContentRedactor contentRedactor) {
+        this.format = format;
+        this.headerNames = headerNames;
+        this.visibleContentType = visibleContentType;
+        this.contentRedactor = contentRedactor;
+    }
+
+    String format(ExchangeSnapshot snapshot) {
+        StringBuilder builder = RECORD_BUILDERS.get();
+
+        Record record = (format == LogFormat.JSON) ? new JsonRecord(builder) : new KeyValueRecord(builder);
+        record.start();
+        record.field("remoteAddr", snapshot.getRemoteAddr());
+        record.field("method", snapshot.getMethod());
+        record.field("uri", snapshot.getRequestUri());
+        if (snapshot.getQueryString() != null) {
+            record.field("query", contentRedactor.redactQuery(snapshot.getQueryString()));
+        }
+        record.field("status", snapshot.getStatus());
+        record.field("durationMs", snapshot.getExecutionTime());
+        if (snapshot.getFailure() != null) {
+            record.field("failure", snapshot.getFailure().toString());
+        }
+        appendHeaders(record, "requestHeaders", snapshot.requestHeaders());
+        appendContent(record, "requestBody", snapshot.getRequestContent());
+        appendHeaders(record, "responseHeaders", snapshot.responseHeaders());
+        appendContent(record, "responseBody", snapshot.getResponseContent());
+        record.end();
+
+        return builder.toString();
+    }
+
+    /**
+     * 같은 이름이 연속된 헤더값은 ", "로 합친다.
+     */
+    private void appendHeaders(Record record, String name, String[] headers) {
+        boolean started = false;
+        String previousName = null;
+        StringBuilder values = null;
+
+        for (int i = 0; i < headers.length; i += 2) {
+            String headerName = headers[i];
+            if (headerNames != null && !headerNames.contains(headerName.toLowerCase(Locale.ROOT))) {
+                continue;
+            }
+
+            String headerValue = contentRedactor.redactHeader(headerName, headers[i + 1]);
+            if (headerName.equalsIgnoreCase(previousName)) {
+                values.append(", ").append(headerValue);
+                continue;
+            }
+
+            if (previousName != null) {
+                record.header(previousName, values.toString());
+            } else if (!started) {
+                record.startHeaders(name);
+                started = true;
+            }
+            previousName = headerName;
+            values = new StringBuilder(headerValue);
+        }
+
+        if (previousName != null) {
+            record.header(previousName, values.toString());
+        }
+        if (started) {
+            record.endHeaders();
+        }
+    }
+
+    private void appendContent(Record record, String name, ExchangeSnapshot.Content content) {
+        if (content.getLength() <= 0) {
+            return;
+        }
+
+        StringBuilder text = null;
+        if (content.getCapturedLength() > 0 && visibleContentType.test(content.getContentType())) {
+            text = CONTENT_BUILDERS.get();
+            try {
+                content.appendText(contentRedactor, text);
+            } catch (UnsupportedEncodingException e) {
+                text = null;
+            }
+        }
+
+        if (text != null) {
+            record.field(name, text);
+        }
+        record.field(name + "Length", content.getLength());
+        if (content.isTruncated()) {
+            record.field(name + "Truncated", true);
+        }
+    }
+
+    private abstract static class Record {
+
+        protected final StringBuilder builder;
+
+        Record(StringBuilder builder) {
+            this.builder = builder;
+        }
+
+        abstract void start();
+
+        abstract void end();
+
+        abstract void field(String name, CharSequence value);
+
+        abstract void field(String name, long value);
+
+        abstract void field(String name, boolean value);
+
+        abstract void startHeaders(String name);
+
+        abstract void header(String name, String value);
+
+        abstract void endHeaders();
+    }
+
+    private static final class JsonRecord extends Record {
+
+        private boolean first;
+
+        JsonRecord(StringBuilder builder) {
+            super(builder);
+        }
+
+        @Override
+        void start() {
+            builder.append('{');
+            first = true;
+        }
+
+        @Override
+        void end() {
+            builder.append('}');
+        }
+
+        private void name(String name) {
+            if (!first) {
+                builder.append(',');
+            }
+            first = false;
+            appendString(name);
+            builder.append(':');
+        }
+
+        @Override
+        void field(String name, CharSequence value) {
+            name(name);
+            appendString(value);
+        }
+
+        @Override
+        void field(String name, long value) {
+            name(name);
+            builder.append(value);
+        }
+
+        @Override
+        void field(String name, boolean value) {
+            name(name);
+            builder.append(value);
+        }
+
+        @Override
+        void startHeaders(String name) {
+            name(name);
+            builder.append('{');
+            first = true;
+        }
+
+        @Override
+        void header(String name, String value) {
+            field(name, value);
+        }
+
+        @Override
+        void endHeaders() {
+            builder.append('}');
+            first = false;
+        }
+
+        private void appendString(CharSequence value) {
+            if (value == null) {
+                builder.append("null");
+                return;
+            }
+
+            builder.append('"');
+            for (int i = 0, length = value.length(); i < length; i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '"':
+                        builder.append("\\\"");
+                        break;
+                    case '\\':
+                        builder.append("\\\\");
+                        break;
+                    case '\n':
+                        builder.append("\\n");
+                        break;
+                    case '\r':
+                        builder.append("\\r");
+                        break;
+                    case '\t':
+                        builder.append("\\t");
+                        break;
+                    default:
+                        if (c < 0x20) {
+                            builder.append(String.format("\\u%04x", (int) c));
+                        } else {
+                            builder.append(c);
+                        }
+                }
+            }
+            builder.append('"');
+        }
+    }
+
+    /**
+     * logfmt 형식. 헤더는 {@code requestHeaders.Content-Type=...} 처럼 접두어를 붙인다.
+     */
+    private static final class KeyValueRecord extends Record {
+
+        private String prefix = "";
+
+        KeyValueRecord(StringBuilder builder) {
+            super(builder);
+        }
+
+        @Override
+        void start() {
+        }
+
+        @Override
+        void end() {
+        }
+
+        private void name(String name) {
+            if (builder.length() > 0) {
+                builder.append(' ');
+            }
+            builder.append(prefix).append(name).append('=');
+        }
+
+        @Override
+        void field(String name, CharSequence value) {
+            name(name);
+            appendValue(value);
+        }
+
+        @Override
+        void field(String name, long value) {
+            name(name);
+            builder.append(value);
+        }
+
+        @Override
+        void field(String name, boolean value) {
+            name(name);
+            builder.append(value);
+        }
+
+        @Override
+        void startHeaders(String name) {
+            prefix = name + ".";
+        }
+
+        @Override
+        void header(String name, String value) {
+            field(name, value);
+        }
+
+        @Override
+        void endHeaders() {
+            prefix = "";
+        }
+
+        private void appendValue(CharSequence value) {
+            if (value == null) {
+                return;
+            }
+            if (!requiresQuote(value)) {
+                builder.append(value);
+                return;
+            }
+
+            builder.append('"');
+            for (int i = 0, length = value.length(); i < length; i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '"':
+                        builder.append("\\\"");
+                        break;
+                    case '\\':
+                        builder.append("\\\\");
+                        break;
+                    case '\n':
+                        builder.append("\\n");
+                        break;
+                    case '\r':
+                        builder.append("\\r");
+                        break;
+                    case '\t':
+                        builder.append("\\t");
+                        break;
+                    default:
+                        builder.append(c);
+                }
+            }
+            builder.append('"');
+        }
+
+        private static boolean requiresQuote(CharSequence value) {
+            if (value.length() == 0) {
+                return true;
+            }
+            for (int i = 0, length = value.length(); i < length; i++) {
+                char c = value.charAt(i);
+                if (c <= ' ' || c == '"' || c == '=' || c == '\\') {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,236 @@
+package wcyoung.spring.mvc.filter;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.List;
+
+/**
+ * 요청/응답 한 건의 불변 스냅샷.
+ * <p>
+ * 요청 쓰레드에서는 값 복사만 하고, 문자열 변환과 로그 출력은 소비 쓰레드에서 수행한다.
+ * 본문은 다시 복사하지 않고 wrapper의 복사 버퍼를 넘겨받으므로, 사용이 끝나면 {@link #release()}로 버퍼를 반납한다.
+ */
+public final class ExchangeSnapshot {
+
+    private final String remoteAddr;
+    private final String method;
+    private final String requestUri;
+    private final String queryString;
+    private final String[] requestHeaders;
+    private final Content requestContent;
+
+    private final int status;
+    private final String[] responseHeaders;
+    private final Content responseContent;
+
+    private final long executionTime;
+    private final Throwable failure;
+
+    private ExchangeSnapshot(ContentCapturingRequestWrapper request, ContentCapturingResponseWrapper response,
+            long executionTime, Throwable failure) {
+        this.remoteAddr = request.getRemoteAddr();
+        this.method = request.getMethod();
+        this.requestUri = request.getRequestURI();
+        this.queryString = request.getQueryString();
+        this.requestHeaders = copyRequestHeaders(request);
+        this.requestContent = new Content(request.detachBuffer(), request.getContentSize(),
+                request.getContentType(), request.getCharacterEncoding());
+
+        this.status = response.getStatus();
+        this.responseHeaders = copyResponseHeaders(response);
+        this.responseContent = new Content(response.detachBuffer(), response.getContentSize(),
+                response.getContentType(), response.getCharacterEncoding());
+
+        this.executionTime = executionTime;
+        this.failure = failure;
+    }
+
+    /**
+     * 응답이 끝난 뒤(비동기 요청은 완료 시점)에 생성해야 응답 본문이 모두 포함된다.
+     * wrapper의 복사 버퍼는 스냅샷으로 넘어가며, 이후 wrapper는 본문을 복사하지 않는다.
+     */
+    public static ExchangeSnapshot capture(ContentCapturingRequestWrapper request, ContentCapturingResponseWrapper response,
+            long executionTime) {
+        return new ExchangeSnapshot(request, response, executionTime, null);
+    }
+
+    /**
+     * @param failure 처리 중 발생한 예외(비동기 요청의 timeout/error 포함). 없으면 null
+     */
+    public static ExchangeSnapshot capture(ContentCapturingRequestWrapper request, ContentCapturingResponseWrapper response,
+            long executionTime, Throwable failure) {
+        return new ExchangeSnapshot(request, response, executionTime, failure);
+    }
+
+    public String getRemoteAddr() {
+        return remoteAddr;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getRequestUri() {
+        return requestUri;
+    }
+
+    public String getQueryString() {
+        return queryString;
+    }
+
+    /**
+     * 헤더명, 헤더값이 번갈아 들어있는 배열. 같은 이름의 헤더가 여러 개이면 각각 들어있다.
+     */
+    public String[] getRequestHeaders() {
+        return requestHeaders.clone();
+    }
+
+    public Content getRequestContent() {
+        return requestContent;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * 헤더명, 헤더값이 번갈아 들어있는 배열.
+     */
+    public String[] getResponseHeaders() {
+        return responseHeaders.clone();
+    }
+
+    public Content getResponseContent() {
+        return responseContent;
+    }
+
+    /**
+     * 처리 시간. (ms)
+     */
+    public long getExecutionTime() {
+        return executionTime;
+    }
+
+    /**
+     * 처리 중 발생한 예외. 없으면 null.
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    String[] requestHeaders() {
+        return requestHeaders;
+    }
+
+    String[] responseHeaders() {
+        return responseHeaders;
+    }
+
+    /**
+     * 본문 버퍼를 pool에 반납한다. 이후 본문은 비어있는 것으로 취급한다.
+     */
+    public void release() {
+        requestContent.release();
+        responseContent.release();
+    }
+
+    private static String[] copyRequestHeaders(ContentCapturingRequestWrapper request) {
+        List<String> headers = new ArrayList<>();
+        Enumeration<String> headerNames = request.getHeaderNames();
+        while (headerNames.hasMoreElements()) {
+            String headerName = headerNames.nextElement();
+            Enumeration<String> headerValues = request.getHeaders(headerName);
+            while (headerValues.hasMoreElements()) {
+                headers.add(headerName);
+                headers.add(headerValues.nextElement());
+            }
+        }
+        return headers.toArray(new String[0]);
+    }
+
+    private static String[] copyResponseHeaders(ContentCapturingResponseWrapper response) {
+        List<String> headers = new ArrayList<>();
+        for (String headerName : response.getHeaderNames()) {
+            Collection<String> headerValues = response.getHeaders(headerName);
+            for (String headerValue : headerValues) {
+                headers.add(headerName);
+                headers.add(headerValue);
+            }
+        }
+        return headers.toArray(new String[0]);
+    }
+
+    /**
+     * 본문 사본. wrapper의 복사 한도보다 긴 본문은 앞부분만 보관하고 원본 길이를 함께 기록한다.
+     */
+    public static final class Content {
+
+        private volatile CaptureBuffer buffer;
+        private final long length;
+        private final String contentType;
+        private final String characterEncoding;
+
+        private Content(CaptureBuffer buffer, long length, String contentType, String characterEncoding) {
+            this.buffer = buffer;
+            this.length = length;
+            this.contentType = contentType;
+            this.characterEncoding = characterEncoding;
+        }
+
+        /**
+         * 복사된 본문. 원본 길이보다 짧을 수 있다. ({@link #isTruncated()})
+         */
+        public byte[] getBytes() {
+            CaptureBuffer buffer = this.buffer;
+            return (buffer != null) ? buffer.toByteArray(characterEncoding) : new byte[0];
+        }
+
+        /**
+         * 복사된 본문 길이.
+         */
+        public int getCapturedLength() {
+            CaptureBuffer buffer = this.buffer;
+            return (buffer != null) ? buffer.size() : 0;
+        }
+
+        /**
+         * 원본 본문 길이.
+         */
+        public long getLength() {
+            return length;
+        }
+
+        public boolean isTruncated() {
+            return getCapturedLength() < length;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public String getCharacterEncoding() {
+            return characterEncoding;
+        }
+
+        /**
+         * 버퍼에서 바로 디코딩해서 {@code redactor}를 거친 본문을 {@code out}에 기록한다.
+         */
+        void appendText(ContentRedactor redactor, StringBuilder out) throws UnsupportedEncodingException {
+            CaptureBuffer buffer = this.buffer;
+            if (buffer != null) {
+                redactor.redact(buffer.toCharSequence(characterEncoding), contentType, out);
+            }
+        }
+
+        private void release() {
+            CaptureBuffer buffer = this.buffer;
+            this.buffer = null;
+            if (buffer != null) {
+                buffer.release();
+            }
+        }
+    }
+
+}
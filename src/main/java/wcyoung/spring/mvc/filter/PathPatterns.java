@@ -0,0 +1,149 @@
+package wcyoung.spring.mvc.filter;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Ant 스타일 URI 패턴({@code ?}, {@code *}, {@code **}) 목록을 한 번에 컴파일한 matcher.
+ * <p>
+ * 패턴을 요청마다 하나씩 비교하지 않도록 종류별로 나누어 둔다.
+ * <ul>
+ * <li>와일드카드가 없는 패턴: {@link Set} 조회</li>
+ * <li>{@code /static/**} 형태: 접두어 비교</li>
+ * <li>{@code /**}{@code /*.js} 형태: 접미어 비교</li>
+ * <li>그 외: 하나의 정규식으로 합쳐서 한 번만 실행</li>
+ * </ul>
+ */
+final class PathPatterns {
+
+    static final PathPatterns EMPTY = compile();
+
+    private static final String ANY_PATH_SUFFIX = "/**";
+    private static final String ANY_FILE_PREFIX = "/**/*";
+
+    private final Set<String> exactPaths = new HashSet<>();
+    private final String[] prefixes;
+    private final String[] suffixes;
+    private final Pattern pattern;
+    private final boolean empty;
+
+    private PathPatterns(String[] patterns) {
+        List<String> prefixes = new ArrayList<>();
+        List<String> suffixes = new ArrayList<>();
+        List<String> regexes = new ArrayList<>();
+
+        for (String pattern : patterns) {
+            String normalized = pattern.trim();
+            if (normalized.isEmpty()) {
+                continue;
+            }
+            if (!normalized.startsWith("/")) {
+                normalized = "/" + normalized;
+            }
+
+            if (!hasWildcard(normalized)) {
+                exactPaths.add(normalized);
+            } else if (normalized.endsWith(ANY_PATH_SUFFIX)
+                    && !hasWildcard(normalized.substring(0, normalized.length() - ANY_PATH_SUFFIX.length()))) {
+                prefixes.add(normalized.substring(0, normalized.length() - ANY_PATH_SUFFIX.length()));
+            } else if (normalized.startsWith(ANY_FILE_PREFIX)
+                    && !hasWildcard(normalized.substring(ANY_FILE_PREFIX.length()))
+                    && normalized.indexOf('/', ANY_FILE_PREFIX.length()) == -1) {
+                suffixes.add(normalized.substring(ANY_FILE_PREFIX.length()));
+            } else {
+                regexes.add(toRegex(normalized));
+            }
+        }
+
+        this.prefixes = prefixes.toArray(new String[0]);
+        this.suffixes = suffixes.toArray(new String[0]);
+        this.pattern = regexes.isEmpty() ? null : Pattern.compile(String.join("|", regexes));
+        this.empty = exactPaths.isEmpty() && prefixes.isEmpty() && suffixes.isEmpty() && regexes.isEmpty();
+    }
+
+    static PathPatterns compile(String... patterns) {
+        return new PathPatterns(patterns);
+    }
+
+    boolean isEmpty() {
+        return empty;
+    }
+
+    boolean matches(String path) {
+        if (empty) {
+            return false;
+        }
+        if (exactPaths.contains(path)) {
+            return true;
+        }
+        for (String prefix : prefixes) {
+            if (path.startsWith(prefix)
+                    && (path.length() == prefix.length() || path.charAt(prefix.length()) == '/' || prefix.isEmpty())) {
+                return true;
+            }
+        }
+        for (String suffix : suffixes) {
+            if (path.endsWith(suffix) && path.lastIndexOf('/') < path.length() - suffix.length()) {
+                return true;
+            }
+        }
+        return pattern != null && pattern.matcher(path).matches();
+    }
+
+    private static boolean hasWildcard(String pattern) {
+        return pattern.indexOf('*') != -1 || pattern.indexOf('?') != -1;
+    }
+
+    private static String toRegex(String pattern) {
+        StringBuilder regex = new StringBuilder("(?:");
+        int length = pattern.length();
+        int literalStart = 0;
+
+        for (int i = 0; i < length; i++) {
+            char c = pattern.charAt(i);
+            if (c != '*' && c != '?') {
+                continue;
+            }
+
+            if (c == '?') {
+                appendLiteral(regex, pattern, literalStart, i);
+                regex.append("[^/]");
+            } else if (i + 1 < length && pattern.charAt(i + 1) == '*') {
+                boolean slashBefore = i > 0 && pattern.charAt(i - 1) == '/';
+                boolean slashAfter = i + 2 < length && pattern.charAt(i + 2) == '/';
+                if (slashBefore && slashAfter) {
+                    // "/**/" 는 "/" 하나와도 일치한다.
+                    appendLiteral(regex, pattern, literalStart, i);
+                    regex.append("(?:.*/)?");
+                    i += 2;
+                } else if (slashBefore && i + 2 == length) {
+                    // 끝의 "/**" 는 상위 경로 자체와도 일치한다.
+                    appendLiteral(regex, pattern, literalStart, i - 1);
+                    regex.append("(?:/.*)?");
+                    i += 1;
+                } else {
+                    appendLiteral(regex, pattern, literalStart, i);
+                    regex.append(".*");
+                    i += 1;
+                }
+            } else {
+                appendLiteral(regex, pattern, literalStart, i);
+                regex.append("[^/]*");
+            }
+            literalStart = i + 1;
+        }
+
+        appendLiteral(regex, pattern, literalStart, length);
+        return regex.append(")").toString();
+    }
+
+    private static void appendLiteral(StringBuilder regex, String pattern, int start, int end) {
+        if (start < end) {
+            regex.append(Pattern.quote(pattern.substring(start, end)));
+        }
+    }
+
+}
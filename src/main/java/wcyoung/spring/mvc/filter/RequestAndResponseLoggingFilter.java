@@ -2,10 +2,24 @@ package wcyoung.spring.mvc.filter;
 
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -15,15 +29,47 @@ import org.apache.commons.lang3.time.StopWatch;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
 import org.springframework.http.MediaType;
+import org.springframework.util.ReflectionUtils;
 import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
 import org.springframework.web.util.ContentCachingRequestWrapper;
 import org.springframework.web.util.ContentCachingResponseWrapper;
 
+import wcyoung.spring.mvc.common.util.AsyncLogDispatcher;
+import wcyoung.spring.mvc.common.util.AsyncLogDispatcher.OverflowPolicy;
+
 public class RequestAndResponseLoggingFilter extends OncePerRequestFilter {
 
+    private static final int MAX_CONTENT_TYPE_DECISIONS = 256;
+
+    /**
+     * 로그 출력 형식.
+     */
+    public enum LogFormat {
+        /**
+         * 헤더/본문/처리시간을 각각 한 줄씩 출력한다.
+         */
+        LINES,
+        /**
+         * 요청/응답 한 건을 JSON 한 줄로 출력한다.
+         */
+        JSON,
+        /**
+         * 요청/응답 한 건을 key=value(logfmt) 한 줄로 출력한다.
+         */
+        KEY_VALUE
+    }
+
     private final Logger log = LoggerFactory.getLogger(getClass());
 
+    /**
+     * 하위 클래스가 {@link ContentCachingRequestWrapper}/{@link ContentCachingResponseWrapper}를 받는
+     * 이전 hook을 재정의했으면 그 hook이 계속 호출되도록 이전 방식(응답 전체 버퍼링)으로 처리한다.
+     */
+    private final boolean legacyHooks = overridesLegacyHooks();
+
     private final List<MediaType> VISIBLE_TYPES = Arrays.asList(
             MediaType.valueOf("text/*"),
             MediaType.APPLICATION_FORM_URLENCODED,
@@ -34,16 +80,321 @@ public class RequestAndResponseLoggingFilter extends OncePerRequestFilter {
             MediaType.MULTIPART_FORM_DATA
     );
 
+    private final ConcurrentMap<String, Boolean> visibleTypeDecisions = new ConcurrentHashMap<>();
+    private final ReusableStringBuilder contentBuilders = new ReusableStringBuilder(1024);
+
+    private LogFormat logFormat = LogFormat.LINES;
+    private Set<String> loggedHeaders;
+    private ExchangeRecordFormatter recordFormatter;
+    private ContentRedactor contentRedactor = ContentRedactor.NONE;
+
+    private ExchangeMetricsRecorder metricsRecorder;
+
+    private boolean tailCapture = false;
+    private long slowThresholdMillis = 1000;
+    private int tailStatusThreshold = 400;
+
+    private boolean asyncLogging = false;
+    private int asyncBufferSize = 1024;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP;
+    private int maxContentLength = 10 * 1024;
+    private int captureBufferPoolSize = 64;
+    private CaptureBufferPool bufferPool = new CaptureBufferPool(maxContentLength, captureBufferPoolSize);
+    private volatile AsyncLogDispatcher<ExchangeSnapshot> dispatcher;
+
+    private PathPatterns includePatterns = PathPatterns.EMPTY;
+    private PathPatterns excludePatterns = PathPatterns.EMPTY;
+    private List<MediaType> includeContentTypes = Collections.emptyList();
+    private List<MediaType> excludeContentTypes = Collections.emptyList();
+    private final ConcurrentMap<String, Boolean> contentTypeDecisions = new ConcurrentHashMap<>();
+    private double samplingRate = 1.0;
+    private SamplingRule[] samplingRules = new SamplingRule[0];
+
+    /**
+     * 로그 출력 형식. (기본값: {@link LogFormat#LINES})
+     * <p>
+     * {@link LogFormat#JSON}, {@link LogFormat#KEY_VALUE}는 요청/응답이 끝난 뒤 한 건을 한 번의 로그 호출로 출력하므로
+     * 쓰레드간 로그가 섞이지 않는다.
+     */
+    public void setLogFormat(LogFormat logFormat) {
+        this.logFormat = logFormat;
+        this.recordFormatter = createRecordFormatter();
+    }
+
+    /**
+     * 구조화 로그({@link LogFormat#JSON}, {@link LogFormat#KEY_VALUE})에 기록할 헤더명. 지정하지 않으면 모든 헤더를 기록한다.
+     */
+    public void setLoggedHeaders(String... loggedHeaders) {
+        Set<String> headerNames = new HashSet<>();
+        for (String loggedHeader : loggedHeaders) {
+            headerNames.add(loggedHeader.toLowerCase(Locale.ROOT));
+        }
+        this.loggedHeaders = headerNames;
+        this.recordFormatter = createRecordFormatter();
+    }
+
+    /**
+     * 문자열로 출력할 본문, 쿼리 문자열, 헤더값에서 민감한 값을 가릴 {@link ContentRedactor}. (기본값: {@link ContentRedactor#NONE})
+     */
+    public void setContentRedactor(ContentRedactor contentRedactor) {
+        this.contentRedactor = (contentRedactor != null) ? contentRedactor : ContentRedactor.NONE;
+        this.recordFormatter = createRecordFormatter();
+    }
+
+    /**
+     * 지정한 이름의 JSON 필드, form/쿼리 파라미터, 헤더, 쿠키 값을 가린다. {@link SensitiveKeyRedactor}를 사용한다.
+     */
+    public void setRedactedKeys(String... redactedKeys) {
+        setContentRedactor(new SensitiveKeyRedactor(redactedKeys));
+    }
+
+    private ExchangeRecordFormatter createRecordFormatter() {
+        if (logFormat == LogFormat.LINES) {
+            return null;
+        }
+        return new ExchangeRecordFormatter(logFormat, loggedHeaders, this::isVisibleContentType, contentRedactor);
+    }
+
+    /**
+     * true이면 모든 로그 대상 요청을 제한된 크기로 복사해 두되, 느리거나({@link #setSlowThresholdMillis(long)})
+     * 오류 상태 코드({@link #setTailStatusThreshold(int)})를 응답했거나 예외가 발생한 요청만 로그를 남긴다.
+     * 나머지 요청은 스냅샷도 만들지 않고 버린다. (기본값: false)
+     */
+    public void setTailCapture(boolean tailCapture) {
+        this.tailCapture = tailCapture;
+    }
+
+    /**
+     * tail capture에서 로그를 남길 최소 처리 시간. (ms, 기본값: 1000)
+     */
+    public void setSlowThresholdMillis(long slowThresholdMillis) {
+        this.slowThresholdMillis = slowThresholdMillis;
+    }
+
+    /**
+     * tail capture에서 로그를 남길 최소 상태 코드. (기본값: 400, 5xx만 남기려면 500)
+     */
+    public void setTailStatusThreshold(int tailStatusThreshold) {
+        this.tailStatusThreshold = tailStatusThreshold;
+    }
+
+    /**
+     * handler pattern별 처리 시간/상태 코드/요청·응답 크기 histogram 기록기. 지정하면 로그 대상이 아닌 요청도 기록한다.
+     */
+    public void setMetricsRecorder(ExchangeMetricsRecorder metricsRecorder) {
+        this.metricsRecorder = metricsRecorder;
+    }
+
+    public ExchangeMetricsRecorder getMetricsRecorder() {
+        return metricsRecorder;
+    }
+
+    /**
+     * true이면 요청 쓰레드에서는 요청/응답 스냅샷만 만들고, 로그 출력은 {@link AsyncLogDispatcher}의 소비 쓰레드에서 수행한다.
+     * 요청 로그도 응답이 끝난 뒤에 한 번에 출력된다. (기본값: false)
+     */
+    public void setAsyncLogging(boolean asyncLogging) {
+        this.asyncLogging = asyncLogging;
+    }
+
+    /**
+     * 비동기 로그 버퍼 크기. (기본값: 1024)
+     */
+    public void setAsyncBufferSize(int asyncBufferSize) {
+        this.asyncBufferSize = asyncBufferSize;
+    }
+
+    /**
+     * 비동기 로그 버퍼가 가득 찼을 때의 동작. (기본값: {@link OverflowPolicy#DROP})
+     */
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * 로그용으로 복사해 둘 요청/응답 본문 최대 길이. 본문은 그대로 전달되고 앞부분만 복사되므로
+     * 본문 크기와 상관없이 요청당 메모리 사용량이 이 값으로 제한된다. (byte, 기본값: 10KB)
+     */
+    public void setMaxContentLength(int maxContentLength) {
+        this.maxContentLength = maxContentLength;
+        this.bufferPool = new CaptureBufferPool(maxContentLength, captureBufferPoolSize);
+    }
+
+    /**
+     * 재사용할 본문 복사 버퍼 최대 개수. 동시 요청이 이보다 많으면 초과분은 버퍼를 새로 만들고 사용 후 버린다.
+     * 버퍼 하나의 크기는 {@code maxContentLength}이다. (기본값: 64)
+     */
+    public void setCaptureBufferPoolSize(int captureBufferPoolSize) {
+        this.captureBufferPoolSize = captureBufferPoolSize;
+        this.bufferPool = new CaptureBufferPool(maxContentLength, captureBufferPoolSize);
+    }
+
+    /**
+     * 로그를 남길 URI 패턴. (Ant 스타일, context path 제외) 지정하면 일치하는 요청만 로그를 남긴다.
+     */
+    public void setIncludePatterns(String... includePatterns) {
+        this.includePatterns = PathPatterns.compile(includePatterns);
+    }
+
+    /**
+     * 로그를 남기지 않을 URI 패턴. (Ant 스타일, context path 제외) include 패턴보다 우선한다.
+     */
+    public void setExcludePatterns(String... excludePatterns) {
+        this.excludePatterns = PathPatterns.compile(excludePatterns);
+    }
+
+    /**
+     * 로그를 남길 요청 Content-Type. (예: {@code application/json}, {@code text/*})
+     * 지정하면 Content-Type이 없는 요청(GET 등)도 제외된다.
+     */
+    public void setIncludeContentTypes(String... includeContentTypes) {
+        this.includeContentTypes = MediaType.parseMediaTypes(Arrays.asList(includeContentTypes));
+        this.contentTypeDecisions.clear();
+    }
+
+    /**
+     * 로그를 남기지 않을 요청 Content-Type. (예: {@code multipart/*})
+     */
+    public void setExcludeContentTypes(String... excludeContentTypes) {
+        this.excludeContentTypes = MediaType.parseMediaTypes(Arrays.asList(excludeContentTypes));
+        this.contentTypeDecisions.clear();
+    }
+
+    /**
+     * 로그를 남길 요청 비율. (0.0 ~ 1.0, 기본값: 1.0)
+     */
+    public void setSamplingRate(double samplingRate) {
+        this.samplingRate = samplingRate;
+    }
+
+    /**
+     * URI 패턴별 로그 비율. 순서대로 처음 일치하는 패턴의 비율을 사용하고, 일치하는 패턴이 없으면 {@link #setSamplingRate(double)}를 사용한다.
+     * 순서가 필요하면 {@link java.util.LinkedHashMap}을 사용한다.
+     */
+    public void setPathSamplingRates(Map<String, Double> pathSamplingRates) {
+        List<SamplingRule> rules = new ArrayList<>();
+        for (Entry<String, Double> entry : pathSamplingRates.entrySet()) {
+            rules.add(new SamplingRule(PathPatterns.compile(entry.getKey()), entry.getValue()));
+        }
+        this.samplingRules = rules.toArray(new SamplingRule[0]);
+    }
+
+    /**
+     * 비동기 로그 전달기. 처리/유실 건수를 확인할 수 있다. 첫 요청 전이거나 비동기 모드가 아니면 null.
+     */
+    public AsyncLogDispatcher<ExchangeSnapshot> getDispatcher() {
+        return dispatcher;
+    }
+
+    @Override
+    public void destroy() {
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+        }
+    }
+
     @Override
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
             throws ServletException, IOException {
-        if (isAsyncDispatch(request) || !log.isDebugEnabled()) {
+        if (isAsyncDispatch(request)) {
             filterChain.doFilter(request, response);
+            return;
+        }
+
+        long startTime = System.nanoTime();
+        HttpServletResponse servedResponse = response;
+
+        try {
+            if (!log.isDebugEnabled() || !shouldLog(request)) {
+                filterChain.doFilter(request, response);
+            } else {
+                boolean captured = asyncLogging || tailCapture || logFormat != LogFormat.LINES;
+                if (legacyHooks && !captured) {
+                    ContentCachingResponseWrapper responseWrapper = wrapLegacyResponse(response);
+                    servedResponse = responseWrapper;
+                    doFilterWrapped(wrapLegacyRequest(request), responseWrapper, filterChain);
+                    return;
+                }
+
+                ContentCapturingResponseWrapper responseWrapper = wrapResponse(response);
+                servedResponse = responseWrapper;
+
+                if (captured) {
+                    doFilterCaptured(wrapRequest(request), responseWrapper, filterChain);
+                } else {
+                    doFilterWrapped(wrapRequest(request), responseWrapper, filterChain);
+                }
+            }
+        } finally {
+            if (metricsRecorder != null) {
+                recordMetrics(request, servedResponse, startTime);
+            }
+        }
+    }
+
+    /**
+     * 로그 대상 여부와 상관없이 모든 요청을 기록한다. 비동기 요청은 완료 시점에 기록한다.
+     */
+    private void recordMetrics(HttpServletRequest request, HttpServletResponse response, long startTime) {
+        if (request.isAsyncStarted()) {
+            request.getAsyncContext().addListener(new CompletionListener(failure -> recordMetricsNow(request, response, startTime)));
         } else {
-            doFilterWrapped(wrapRequest(request), wrapResponse(response), filterChain);
+            recordMetricsNow(request, response, startTime);
+        }
+    }
+
+    private void recordMetricsNow(HttpServletRequest request, HttpServletResponse response, long startTime) {
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        metricsRecorder.record((pattern instanceof String) ? (String) pattern : null, System.nanoTime() - startTime,
+                response.getStatus(), request.getContentLengthLong(), getResponseBytes(response));
+    }
+
+    /**
+     * 로그 대상이 아닌 요청은 wrapper가 없으므로 Content-Length 헤더로 대신한다. 알 수 없으면 -1.
+     */
+    private long getResponseBytes(HttpServletResponse response) {
+        if (response instanceof ContentCapturingResponseWrapper) {
+            return ((ContentCapturingResponseWrapper) response).getContentSize();
+        }
+
+        String contentLength = response.getHeader("Content-Length");
+        if (contentLength == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentLength);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * {@link LogFormat#LINES} 동기 로그 처리.
+     * 요청/응답 wrapper의 복사 버퍼는 pool에서 빌린 것이므로 {@link #afterRequest}가 끝나면 반납되고,
+     * 이후 {@code getContentAsByteArray()}는 빈 배열을 반환한다. 본문이 더 필요하면 {@link #afterRequest} 안에서 복사해 둔다.
+     */
+    protected void doFilterWrapped(ContentCapturingRequestWrapper request, ContentCapturingResponseWrapper response, FilterChain filterChain) throws IOException, ServletException {
+        StopWatch stopWatch = new StopWatch();
+
+        try {
+            stopWatch.start();
+
+            beforeRequest(request, response);
+            filterChain.doFilter(request, response);
+        } finally {
+            if (!deferUntilAsyncComplete(request, asyncFailure -> completeWrapped(request, response, stopWatch))) {
+                completeWrapped(request, response, stopWatch);
+            }
         }
     }
 
+    /**
+     * 이전 버전의 hook. 응답 전체를 버퍼에 모았다가 로그를 남긴 뒤 복사하므로 스트리밍/비동기 응답에 적합하지 않다.
+     * 하위 클래스가 재정의한 경우에만 {@link LogFormat#LINES} 동기 로그에서 호출된다.
+     *
+     * @deprecated {@link #doFilterWrapped(ContentCapturingRequestWrapper, ContentCapturingResponseWrapper, FilterChain)}를 재정의한다.
+     */
+    @Deprecated
     protected void doFilterWrapped(ContentCachingRequestWrapper request, ContentCachingResponseWrapper response, FilterChain filterChain) throws IOException, ServletException {
         StopWatch stopWatch = new StopWatch();
 
@@ -62,81 +413,437 @@ public class RequestAndResponseLoggingFilter extends OncePerRequestFilter {
         }
     }
 
-    protected void beforeRequest(ContentCachingRequestWrapper request, ContentCachingResponseWrapper response) {
+    private void completeWrapped(ContentCapturingRequestWrapper request, ContentCapturingResponseWrapper response, StopWatch stopWatch) {
+        try {
+            afterRequest(request, response);
+        } finally {
+            request.releaseBuffer();
+            response.releaseBuffer();
+        }
+
+        stopWatch.stop();
+        long executionTime = stopWatch.getTime();
+        log.debug("[{}] <==> execution time=({} ms)", request.getRemoteAddr(), String.format("%,d", executionTime));
+    }
+
+    protected void doFilterCaptured(ContentCapturingRequestWrapper request, ContentCapturingResponseWrapper response, FilterChain filterChain) throws IOException, ServletException {
+        long startTime = System.nanoTime();
+        Throwable failure = null;
+
+        try {
+            filterChain.doFilter(request, response);
+        } catch (IOException | ServletException | RuntimeException | Error e) {
+            failure = e;
+            throw e;
+        } finally {
+            if (!deferUntilAsyncComplete(request, asyncFailure -> completeCaptured(request, response, startTime, asyncFailure))) {
+                completeCaptured(request, response, startTime, failure);
+            }
+        }
+    }
+
+    private void completeCaptured(ContentCapturingRequestWrapper request, ContentCapturingResponseWrapper response,
+            long startTime, Throwable failure) {
+        long executionTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+        if (tailCapture && !isTail(executionTime, response.getStatus(), failure)) {
+            request.releaseBuffer();
+            response.releaseBuffer();
+            return;
+        }
+
+        ExchangeSnapshot snapshot = ExchangeSnapshot.capture(request, response, executionTime, failure);
+        if (asyncLogging) {
+            getOrCreateDispatcher().publish(snapshot);
+        } else {
+            try {
+                logExchange(snapshot);
+            } finally {
+                snapshot.release();
+            }
+        }
+    }
+
+    private boolean isTail(long executionTime, int status, Throwable failure) {
+        return failure != null || status >= tailStatusThreshold || executionTime >= slowThresholdMillis;
+    }
+
+    /**
+     * 비동기 요청({@code DeferredResult}, {@code Callable}, {@code StreamingResponseBody}, SSE 등)이 시작되었으면
+     * 응답 로그를 비동기 처리가 끝나는 시점({@link AsyncListener#onComplete(AsyncEvent)})으로 미룬다.
+     * <p>
+     * wrapper는 {@code startAsync(request, response)}로 비동기 처리에 그대로 전달되므로, 이후 다른 쓰레드의 출력도
+     * 버퍼링 없이 전송되면서 앞부분만 복사된다.
+     */
+    private boolean deferUntilAsyncComplete(HttpServletRequest request, Consumer<Throwable> completion) {
+        if (!request.isAsyncStarted()) {
+            return false;
+        }
+
+        request.getAsyncContext().addListener(new CompletionListener(completion));
+        return true;
+    }
+
+    /**
+     * 비동기 모드에서는 소비 쓰레드가, 구조화 로그 형식에서는 요청 쓰레드가 응답 완료 후 호출한다.
+     */
+    protected void logExchange(ExchangeSnapshot snapshot) {
+        ExchangeRecordFormatter formatter = recordFormatter;
+        if (formatter != null) {
+            log.debug(formatter.format(snapshot));
+            return;
+        }
+
+        String remoteAddr = snapshot.getRemoteAddr();
+
+        if (snapshot.getQueryString() == null) {
+            log.debug("[{}] ==> [{}] {}", remoteAddr, snapshot.getMethod(), snapshot.getRequestUri());
+        } else {
+            log.debug("[{}] ==> [{}] {}?{}", remoteAddr, snapshot.getMethod(), snapshot.getRequestUri(),
+                    contentRedactor.redactQuery(snapshot.getQueryString()));
+        }
+
+        String[] requestHeaders = snapshot.requestHeaders();
+        for (int i = 0; i < requestHeaders.length; i += 2) {
+            log.debug("[{}] ==> {}: {}", remoteAddr, requestHeaders[i], contentRedactor.redactHeader(requestHeaders[i], requestHeaders[i + 1]));
+        }
+        logContent(snapshot.getRequestContent(), "[" + remoteAddr + "] ==>");
+
+        int status = snapshot.getStatus();
+        log.debug("[{}] <== [{} {}]", remoteAddr, status, getReasonPhrase(status));
+
+        String[] responseHeaders = snapshot.responseHeaders();
+        for (int i = 0; i < responseHeaders.length; i += 2) {
+            log.debug("[{}] <== {}: {}", remoteAddr, responseHeaders[i], contentRedactor.redactHeader(responseHeaders[i], responseHeaders[i + 1]));
+        }
+        logContent(snapshot.getResponseContent(), "[" + remoteAddr + "] <==");
+
+        if (snapshot.getFailure() != null) {
+            log.debug("[{}] <== failure: {}", remoteAddr, snapshot.getFailure().toString(), snapshot.getFailure());
+        }
+
+        log.debug("[{}] <==> execution time=({} ms)", remoteAddr, String.format("%,d", snapshot.getExecutionTime()));
+    }
+
+    /**
+     * URI/Content-Type 규칙과 샘플링 비율로 로그 대상 여부를 결정한다. 대상이 아니면 wrapper도 생성하지 않는다.
+     */
+    protected boolean shouldLog(HttpServletRequest request) {
+        String path = getPath(request);
+
+        if (excludePatterns.matches(path)) {
+            return false;
+        }
+        if (!includePatterns.isEmpty() && !includePatterns.matches(path)) {
+            return false;
+        }
+        if (!isLoggableContentType(request.getContentType())) {
+            return false;
+        }
+
+        return sample(getSamplingRate(path));
+    }
+
+    private String getPath(HttpServletRequest request) {
+        String requestUri = request.getRequestURI();
+        String contextPath = request.getContextPath();
+        if (contextPath != null && !contextPath.isEmpty() && requestUri.startsWith(contextPath)) {
+            return requestUri.substring(contextPath.length());
+        }
+        return requestUri;
+    }
+
+    private boolean isLoggableContentType(String contentType) {
+        if (includeContentTypes.isEmpty() && excludeContentTypes.isEmpty()) {
+            return true;
+        }
+        if (contentType == null) {
+            return includeContentTypes.isEmpty();
+        }
+
+        // multipart boundary 등 요청마다 다른 파라미터는 제외하고 캐시한다.
+        int parameterIndex = contentType.indexOf(';');
+        String type = (parameterIndex == -1 ? contentType : contentType.substring(0, parameterIndex)).trim();
+
+        Boolean decision = contentTypeDecisions.get(type);
+        if (decision == null) {
+            decision = resolveContentType(type);
+            if (contentTypeDecisions.size() < MAX_CONTENT_TYPE_DECISIONS) {
+                contentTypeDecisions.putIfAbsent(type, decision);
+            }
+        }
+        return decision;
+    }
+
+    private boolean resolveContentType(String type) {
+        MediaType mediaType;
+        try {
+            mediaType = MediaType.parseMediaType(type);
+        } catch (InvalidMediaTypeException e) {
+            return includeContentTypes.isEmpty();
+        }
+
+        for (MediaType excludeContentType : excludeContentTypes) {
+            if (excludeContentType.includes(mediaType)) {
+                return false;
+            }
+        }
+        if (includeContentTypes.isEmpty()) {
+            return true;
+        }
+        for (MediaType includeContentType : includeContentTypes) {
+            if (includeContentType.includes(mediaType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private double getSamplingRate(String path) {
+        for (SamplingRule rule : samplingRules) {
+            if (rule.patterns.matches(path)) {
+                return rule.rate;
+            }
+        }
+        return samplingRate;
+    }
+
+    private boolean sample(double rate) {
+        if (rate >= 1.0) {
+            return true;
+        }
+        if (rate <= 0.0) {
+            return false;
+        }
+        return ThreadLocalRandom.current().nextDouble() < rate;
+    }
+
+    private AsyncLogDispatcher<ExchangeSnapshot> getOrCreateDispatcher() {
+        AsyncLogDispatcher<ExchangeSnapshot> current = dispatcher;
+        if (current == null) {
+            synchronized (this) {
+                current = dispatcher;
+                if (current == null) {
+                    current = new AsyncLogDispatcher<>("exchange", asyncBufferSize, overflowPolicy, this::logExchange, ExchangeSnapshot::release);
+                    dispatcher = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    protected void beforeRequest(ContentCapturingRequestWrapper request, ContentCapturingResponseWrapper response) {
         logRequestHeader(request, request.getRemoteAddr());
     }
 
-    protected void afterRequest(ContentCachingRequestWrapper request, ContentCachingResponseWrapper response) {
+    /**
+     * 응답이 끝난 뒤 호출된다. 복사 버퍼는 이 메소드가 반환된 뒤 pool에 반납된다.
+     */
+    protected void afterRequest(ContentCapturingRequestWrapper request, ContentCapturingResponseWrapper response) {
         String remoteAddr = request.getRemoteAddr();
         logRequestBody(request, remoteAddr);
         logResponseHeader(response, remoteAddr);
         logResponseBody(response, remoteAddr);
     }
 
-    private void logRequestHeader(ContentCachingRequestWrapper request, String remoteAddr) {
+    /**
+     * @deprecated {@link #beforeRequest(ContentCapturingRequestWrapper, ContentCapturingResponseWrapper)}를 재정의한다.
+     */
+    @Deprecated
+    protected void beforeRequest(ContentCachingRequestWrapper request, ContentCachingResponseWrapper response) {
+        logRequestHeader(request, request.getRemoteAddr());
+    }
+
+    /**
+     * @deprecated {@link #afterRequest(ContentCapturingRequestWrapper, ContentCapturingResponseWrapper)}를 재정의한다.
+     */
+    @Deprecated
+    protected void afterRequest(ContentCachingRequestWrapper request, ContentCachingResponseWrapper response) {
+        String remoteAddr = request.getRemoteAddr();
+        logContent(request.getContentAsByteArray(), request.getContentType(), request.getCharacterEncoding(), "[" + remoteAddr + "] ==>");
+        logResponseHeader(response, remoteAddr);
+        logContent(response.getContentAsByteArray(), response.getContentType(), response.getCharacterEncoding(), "[" + remoteAddr + "] <==");
+    }
+
+    private boolean overridesLegacyHooks() {
+        boolean overridden = overridesLegacyHook("doFilterWrapped", ContentCachingRequestWrapper.class, ContentCachingResponseWrapper.class, FilterChain.class)
+                || overridesLegacyHook("beforeRequest", ContentCachingRequestWrapper.class, ContentCachingResponseWrapper.class)
+                || overridesLegacyHook("afterRequest", ContentCachingRequestWrapper.class, ContentCachingResponseWrapper.class);
+        if (overridden) {
+            log.warn("{} overrides deprecated ContentCaching* hooks. Responses are fully buffered for LINES logging.", getClass().getName());
+        }
+        return overridden;
+    }
+
+    private boolean overridesLegacyHook(String name, Class<?>... parameterTypes) {
+        java.lang.reflect.Method method = ReflectionUtils.findMethod(getClass(), name, parameterTypes);
+        return method != null && method.getDeclaringClass() != RequestAndResponseLoggingFilter.class;
+    }
+
+    private void logRequestHeader(HttpServletRequest request, String remoteAddr) {
         String queryString = request.getQueryString();
         if (queryString == null) {
             log.debug("[{}] ==> [{}] {}", remoteAddr, request.getMethod(), request.getRequestURI());
         } else {
-            log.debug("[{}] ==> [{}] {}?{}", remoteAddr, request.getMethod(), request.getRequestURI(), queryString);
+            log.debug("[{}] ==> [{}] {}?{}", remoteAddr, request.getMethod(), request.getRequestURI(), contentRedactor.redactQuery(queryString));
         }
 
         Collections.list(request.getHeaderNames()).forEach(headerName -> {
             Collections.list(request.getHeaders(headerName)).forEach(headerValue -> {
-                log.debug("[{}] ==> {}: {}", remoteAddr, headerName, headerValue);
+                log.debug("[{}] ==> {}: {}", remoteAddr, headerName, contentRedactor.redactHeader(headerName, headerValue));
             });
         });
     }
 
-    private void logRequestBody(ContentCachingRequestWrapper request, String remoteAddr) {
-        byte[] content = request.getContentAsByteArray();
-        if (content.length > 0) {
-            logContent(content, request.getContentType(), request.getCharacterEncoding(), "[" + remoteAddr + "] ==>");
+    private void logRequestBody(ContentCapturingRequestWrapper request, String remoteAddr) {
+        CaptureBuffer buffer = request.getBuffer();
+        if (buffer != null && buffer.size() > 0) {
+            logContent(buffer, request.getContentSize(),
+                    request.getContentType(), request.getCharacterEncoding(), "[" + remoteAddr + "] ==>");
         }
     }
 
-    private void logResponseHeader(ContentCachingResponseWrapper response, String remoteAddr) {
-        int status = response.getStatusCode();
-        log.debug("[{}] <== [{} {}]", remoteAddr, status, HttpStatus.valueOf(status).getReasonPhrase());
+    private void logResponseHeader(HttpServletResponse response, String remoteAddr) {
+        int status = response.getStatus();
+        log.debug("[{}] <== [{} {}]", remoteAddr, status, getReasonPhrase(status));
 
         response.getHeaderNames().forEach(headerName -> {
             response.getHeaders(headerName).forEach(headerValue -> {
-                log.debug("[{}] <== {}: {}", headerName, headerValue);
+                log.debug("[{}] <== {}: {}", remoteAddr, headerName, contentRedactor.redactHeader(headerName, headerValue));
             });
         });
     }
 
-    private void logResponseBody(ContentCachingResponseWrapper response, String remoteAddr) {
-        byte[] content = response.getContentAsByteArray();
-        if (content.length > 0) {
-            logContent(content, response.getContentType(), response.getCharacterEncoding(), "[" + remoteAddr + "] <==");
+    private void logResponseBody(ContentCapturingResponseWrapper response, String remoteAddr) {
+        CaptureBuffer buffer = response.getBuffer();
+        if (buffer != null && buffer.size() > 0) {
+            logContent(buffer, response.getContentSize(),
+                    response.getContentType(), response.getCharacterEncoding(), "[" + remoteAddr + "] <==");
+        }
+    }
+
+    private void logContent(ExchangeSnapshot.Content content, String logPrefix) {
+        if (content.getCapturedLength() == 0) {
+            return;
+        }
+
+        String prefix = content.isTruncated() ? logPrefix + " (" + content.getLength() + " bytes, truncated)" : logPrefix;
+        if (isVisibleContentType(content.getContentType())) {
+            StringBuilder text = contentBuilders.get();
+            try {
+                content.appendText(contentRedactor, text);
+                log.debug("{} {}", prefix, text.toString());
+                return;
+            } catch (UnsupportedEncodingException e) {
+                // 길이만 출력한다.
+            }
+        }
+        log.debug("{} [{}]", prefix, content.getCapturedLength());
+    }
+
+    /**
+     * 복사된 본문이 원본보다 짧으면 원본 길이를 함께 표시한다.
+     * 복사 버퍼에서 바로 디코딩해서 {@link ContentRedactor}를 거쳐 출력하므로 본문을 다시 복사하지 않는다.
+     */
+    private void logContent(CaptureBuffer buffer, long contentLength, String contentType, String contentEncoding, String logPrefix) {
+        String prefix = (buffer.size() < contentLength) ? logPrefix + " (" + contentLength + " bytes, truncated)" : logPrefix;
+        if (isVisibleContentType(contentType)) {
+            StringBuilder text = contentBuilders.get();
+            try {
+                contentRedactor.redact(buffer.toCharSequence(contentEncoding), contentType, text);
+                log.debug("{} {}", prefix, text.toString());
+                return;
+            } catch (UnsupportedEncodingException e) {
+                // 길이만 출력한다.
+            }
         }
+        log.debug("{} [{}]", prefix, buffer.size());
     }
 
     private void logContent(byte[] content, String contentType, String contentEncoding, String logPrefix) {
-        MediaType mediaType = MediaType.valueOf(contentType);
-        boolean visible = VISIBLE_TYPES.stream().anyMatch(visibleType -> visibleType.includes(mediaType));
-        if (visible) {
+        if (content.length == 0) {
+            return;
+        }
+
+        if (isVisibleContentType(contentType)) {
+            StringBuilder text = contentBuilders.get();
             try {
-                String contentString = new String(content, contentEncoding);
-                log.debug("{} {}", logPrefix, contentString);
+                contentRedactor.redact(new String(content, contentEncoding), contentType, text);
+                log.debug("{} {}", logPrefix, text.toString());
+                return;
             } catch (UnsupportedEncodingException e) {
-                log.debug("{} [{}]", logPrefix, content.length);
+                // 길이만 출력한다.
+            }
+        }
+        log.debug("{} [{}]", logPrefix, content.length);
+    }
+
+    /**
+     * 본문을 문자열로 출력할 Content-Type인지 여부. Content-Type 문자열별로 한 번만 판단한다.
+     */
+    protected boolean isVisibleContentType(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+
+        Boolean visible = visibleTypeDecisions.get(contentType);
+        if (visible == null) {
+            visible = resolveVisibleContentType(contentType);
+            if (visibleTypeDecisions.size() < MAX_CONTENT_TYPE_DECISIONS) {
+                visibleTypeDecisions.putIfAbsent(contentType, visible);
+            }
+        }
+        return visible;
+    }
+
+    private boolean resolveVisibleContentType(String contentType) {
+        MediaType mediaType;
+        try {
+            mediaType = MediaType.parseMediaType(contentType);
+        } catch (InvalidMediaTypeException e) {
+            return false;
+        }
+
+        for (MediaType visibleType : VISIBLE_TYPES) {
+            if (visibleType.includes(mediaType)) {
+                return true;
             }
+        }
+        return false;
+    }
+
+    private String getReasonPhrase(int status) {
+        try {
+            return HttpStatus.valueOf(status).getReasonPhrase();
+        } catch (IllegalArgumentException e) {
+            return "";
+        }
+    }
+
+    private ContentCapturingRequestWrapper wrapRequest(HttpServletRequest request) {
+        if (request instanceof ContentCapturingRequestWrapper) {
+            return (ContentCapturingRequestWrapper) request;
+        } else {
+            return new ContentCapturingRequestWrapper(request, bufferPool);
+        }
+    }
+
+    private ContentCapturingResponseWrapper wrapResponse(HttpServletResponse response) {
+        if (response instanceof ContentCapturingResponseWrapper) {
+            return (ContentCapturingResponseWrapper) response;
         } else {
-            log.debug("{} [{}]", logPrefix, content.length);
+            return new ContentCapturingResponseWrapper(response, bufferPool);
         }
     }
 
-    private ContentCachingRequestWrapper wrapRequest(HttpServletRequest request) {
+    private ContentCachingRequestWrapper wrapLegacyRequest(HttpServletRequest request) {
         if (request instanceof ContentCachingRequestWrapper) {
             return (ContentCachingRequestWrapper) request;
         } else {
-            return new ContentCachingRequestWrapper(request);
+            return new ContentCachingRequestWrapper(request, maxContentLength);
         }
     }
 
-    private ContentCachingResponseWrapper wrapResponse(HttpServletResponse response) {
+    private ContentCachingResponseWrapper wrapLegacyResponse(HttpServletResponse response) {
         if (response instanceof ContentCachingResponseWrapper) {
             return (ContentCachingResponseWrapper) response;
         } else {
@@ -144,4 +851,56 @@ public class RequestAndResponseLoggingFilter extends OncePerRequestFilter {
         }
     }
 
+    private static final class SamplingRule {
+
+        private final PathPatterns patterns;
+        private final double rate;
+
+        private SamplingRule(PathPatterns patterns, double rate) {
+            this.patterns = patterns;
+            this.rate = rate;
+        }
+    }
+
+    /**
+     * 비동기 처리가 완료되면 한 번만 로그를 남긴다. timeout/error 이후에도 onComplete는 호출되므로
+     * 그 사이에 발생한 오류를 함께 전달한다.
+     */
+    private static final class CompletionListener implements AsyncListener {
+
+        private final Consumer<Throwable> completion;
+        private volatile Throwable failure;
+
+        private CompletionListener(Consumer<Throwable> completion) {
+            this.completion = completion;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            completion.accept(failure);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            if (failure == null) {
+                failure = new TimeoutException("async request timed out.");
+            }
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            if (failure == null) {
+                failure = event.getThrowable();
+            }
+        }
+
+        /**
+         * 같은 요청에서 비동기 처리가 다시 시작되면 listener가 초기화되므로 다시 등록한다.
+         */
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            event.getAsyncContext().addListener(this);
+        }
+    }
+
 }
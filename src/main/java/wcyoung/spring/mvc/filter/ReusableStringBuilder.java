@@ -0,0 +1,32 @@
+package wcyoung.spring.mvc.filter;
+
+/**
+ * 쓰레드별로 재사용하는 {@link StringBuilder}. 로그 한 건을 만드는 동안만 사용한다.
+ * <p>
+ * 큰 본문 때문에 늘어난 버퍼는 계속 들고 있지 않도록 일정 크기를 넘으면 새로 만든다.
+ */
+final class ReusableStringBuilder {
+
+    private static final int MAX_REUSABLE_CAPACITY = 64 * 1024;
+
+    private final int initialCapacity;
+    private final ThreadLocal<StringBuilder> builders = new ThreadLocal<>();
+
+    ReusableStringBuilder(int initialCapacity) {
+        this.initialCapacity = initialCapacity;
+    }
+
+    /**
+     * 현재 쓰레드의 빈 버퍼.
+     */
+    StringBuilder get() {
+        StringBuilder builder = builders.get();
+        if (builder == null || builder.capacity() > MAX_REUSABLE_CAPACITY) {
+            builder = new StringBuilder(initialCapacity);
+            builders.set(builder);
+        }
+        builder.setLength(0);
+        return builder;
+    }
+
+}
@@ -0,0 +1,302 @@
+package wcyoung.spring.mvc.filter;
+
+import java.util.Arrays;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * JSON 필드와 form 파라미터 중 이름이 지정된 key와 일치하는 값을 가린다. (대소문자 무시)
+ * <p>
+ * key 목록은 생성시 하나의 trie로 컴파일하므로, key 수와 상관없이 본문을 한 번만 훑으면서 이름을 비교한다.
+ * 정규식이나 JSON 파싱 없이 일치하지 않는 구간은 원본을 그대로 복사하고, 잘린 본문도 잘린 위치까지 처리한다.
+ * <ul>
+ * <li>JSON ({@code *json}): {@code "key": value}의 value를 문자열이든 객체/배열이든 통째로 {@code "****"}로 바꾼다.</li>
+ * <li>form ({@code application/x-www-form-urlencoded}): {@code key=value}의 value를 {@code ****}로 바꾼다.
+ * 이름은 URL 디코딩하지 않고 비교한다.</li>
+ * <li>그 외 Content-Type은 그대로 기록한다.</li>
+ * </ul>
+ * 쿼리 문자열은 form과 같은 방식으로 가리고, 헤더는 이름이 key와 일치하면 값 전체를,
+ * {@code Cookie}/{@code Set-Cookie}는 {@code ;}로 구분된 {@code name=value} 중 일치하는 값을 가린다.
+ */
+public class SensitiveKeyRedactor implements ContentRedactor {
+
+    private static final String FORM_CONTENT_TYPE = "application/x-www-form-urlencoded";
+    private static final String COOKIE_HEADER = "Cookie";
+    private static final String SET_COOKIE_HEADER = "Set-Cookie";
+
+    private final KeyMatcher matcher;
+    private String mask = "****";
+
+    /**
+     * @param keys 값을 가릴 이름 (ASCII)
+     */
+    public SensitiveKeyRedactor(String... keys) {
+        this.matcher = new KeyMatcher(keys);
+    }
+
+    /**
+     * 가린 값 대신 기록할 문자열. (기본값: ****)
+     */
+    public void setMask(String mask) {
+        this.mask = mask;
+    }
+
+    @Override
+    public void redact(CharSequence content, String contentType, StringBuilder out) {
+        if (StringUtils.containsIgnoreCase(contentType, "json")) {
+            redactJson(content, out);
+        } else if (StringUtils.containsIgnoreCase(contentType, FORM_CONTENT_TYPE)) {
+            redactPairs(content, '&', out);
+        } else {
+            out.append(content);
+        }
+    }
+
+    @Override
+    public String redactQuery(String queryString) {
+        if (queryString == null) {
+            return null;
+        }
+        StringBuilder out = new StringBuilder(queryString.length());
+        redactPairs(queryString, '&', out);
+        return out.toString();
+    }
+
+    @Override
+    public String redactHeader(String headerName, String headerValue) {
+        if (headerName == null || headerValue == null) {
+            return headerValue;
+        }
+        if (matches(headerName)) {
+            return mask;
+        }
+        if (COOKIE_HEADER.equalsIgnoreCase(headerName) || SET_COOKIE_HEADER.equalsIgnoreCase(headerName)) {
+            StringBuilder out = new StringBuilder(headerValue.length());
+            redactPairs(headerValue, ';', out);
+            return out.toString();
+        }
+        return headerValue;
+    }
+
+    private boolean matches(String name) {
+        int state = KeyMatcher.START;
+        for (int i = 0; i < name.length(); i++) {
+            state = matcher.next(state, name.charAt(i));
+        }
+        return matcher.isMatch(state);
+    }
+
+    private void redactJson(CharSequence content, StringBuilder out) {
+        int length = content.length();
+        int copied = 0;
+        int i = 0;
+
+        while (i < length) {
+            if (content.charAt(i) != '"') {
+                i++;
+                continue;
+            }
+
+            int state = KeyMatcher.START;
+            int j = i + 1;
+            while (j < length) {
+                char c = content.charAt(j);
+                if (c == '"') {
+                    break;
+                }
+                if (c == '\\') {
+                    state = KeyMatcher.NO_MATCH;
+                    j += 2;
+                    continue;
+                }
+                state = matcher.next(state, c);
+                j++;
+            }
+            if (j >= length) {
+                break;
+            }
+
+            i = j + 1;
+            if (!matcher.isMatch(state)) {
+                continue;
+            }
+
+            int colon = skipWhitespace(content, i);
+            if (colon >= length || content.charAt(colon) != ':') {
+                continue;
+            }
+
+            int valueStart = skipWhitespace(content, colon + 1);
+            if (valueStart >= length) {
+                break;
+            }
+
+            out.append(content, copied, valueStart).append('"').append(mask).append('"');
+            copied = i = skipJsonValue(content, valueStart);
+        }
+
+        out.append(content, copied, length);
+    }
+
+    /**
+     * {@code separator}로 구분된 {@code name=value} 목록에서 이름이 일치하는 값을 가린다. 이름 앞의 공백은 무시한다.
+     */
+    private void redactPairs(CharSequence content, char separator, StringBuilder out) {
+        int length = content.length();
+        int copied = 0;
+        int i = 0;
+
+        while (i < length) {
+            int state = KeyMatcher.START;
+            int j = skipWhitespace(content, i);
+            while (j < length) {
+                char c = content.charAt(j);
+                if (c == '=' || c == separator) {
+                    break;
+                }
+                state = matcher.next(state, c);
+                j++;
+            }
+
+            boolean sensitive = j < length && content.charAt(j) == '=' && matcher.isMatch(state);
+            int valueStart = j + 1;
+            while (j < length && content.charAt(j) != separator) {
+                j++;
+            }
+            if (sensitive) {
+                out.append(content, copied, valueStart).append(mask);
+                copied = j;
+            }
+            i = j + 1;
+        }
+
+        out.append(content, copied, length);
+    }
+
+    private static int skipWhitespace(CharSequence content, int index) {
+        int length = content.length();
+        while (index < length && Character.isWhitespace(content.charAt(index))) {
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * @return value 다음 위치. value가 잘렸으면 본문 길이
+     */
+    private static int skipJsonValue(CharSequence content, int start) {
+        int length = content.length();
+        char first = content.charAt(start);
+
+        if (first == '"') {
+            return skipJsonString(content, start);
+        }
+
+        if (first == '{' || first == '[') {
+            int depth = 0;
+            int i = start;
+            while (i < length) {
+                char c = content.charAt(i);
+                if (c == '"') {
+                    i = skipJsonString(content, i);
+                    continue;
+                }
+                if (c == '{' || c == '[') {
+                    depth++;
+                } else if ((c == '}' || c == ']') && --depth == 0) {
+                    return i + 1;
+                }
+                i++;
+            }
+            return length;
+        }
+
+        int i = start;
+        while (i < length) {
+            char c = content.charAt(i);
+            if (c == ',' || c == '}' || c == ']' || Character.isWhitespace(c)) {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipJsonString(CharSequence content, int start) {
+        int length = content.length();
+        int i = start + 1;
+        while (i < length) {
+            char c = content.charAt(i);
+            if (c == '"') {
+                return i + 1;
+            }
+            i += (c == '\\') ? 2 : 1;
+        }
+        return length;
+    }
+
+    /**
+     * 소문자 ASCII key들의 trie. 상태 전이표 하나로 표현한다.
+     */
+    private static final class KeyMatcher {
+
+        static final int START = 0;
+        static final int NO_MATCH = -1;
+
+        private static final int ALPHABET = 128;
+
+        private int[] transitions;
+        private boolean[] matches;
+        private int stateCount = 1;
+
+        KeyMatcher(String[] keys) {
+            transitions = new int[ALPHABET * 16];
+            matches = new boolean[16];
+
+            for (String key : keys) {
+                int state = START;
+                for (int i = 0; i < key.length(); i++) {
+                    char c = Character.toLowerCase(key.charAt(i));
+                    if (c >= ALPHABET) {
+                        throw new IllegalArgumentException("Sensitive key must be ASCII: " + key);
+                    }
+
+                    int next = transitions[state * ALPHABET + c];
+                    if (next == START) {
+                        next = addState();
+                        transitions[state * ALPHABET + c] = next;
+                    }
+                    state = next;
+                }
+                matches[state] = true;
+            }
+        }
+
+        private int addState() {
+            if (stateCount == matches.length) {
+                matches = Arrays.copyOf(matches, stateCount * 2);
+                transitions = Arrays.copyOf(transitions, stateCount * 2 * ALPHABET);
+            }
+            return stateCount++;
+        }
+
+        int next(int state, char c) {
+            if (state == NO_MATCH) {
+                return NO_MATCH;
+            }
+            if (c >= 'A' && c <= 'Z') {
+                c += 'a' - 'A';
+            } else if (c >= ALPHABET) {
+                return NO_MATCH;
+            }
+
+            int next = transitions[state * ALPHABET + c];
+            return (next == START) ? NO_MATCH : next;
+        }
+
+        boolean isMatch(int state) {
+            return state != NO_MATCH && matches[state];
+        }
+    }
+
+}
@@ -0,0 +1,272 @@
+package wcyoung.spring.mvc.filter;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import wcyoung.spring.mvc.mybatis.plugin.StatementCounter;
+
+/**
+ * 요청마다 실행된 MyBatis statement 수와 DB 처리 시간을 집계한다.
+ * ({@link wcyoung.spring.mvc.mybatis.plugin.MybatisStatementCountInterceptor}를 plugin으로 등록해야 한다.)
+ * <p>
+ * 요청이 끝나면 합계를 debug 로그로 남기고, 같은 statement가 {@code repeatThreshold}번을 넘게 실행되었으면
+ * N+1 조회 의심으로 warn 로그를 남긴다. 요청을 처리한 쓰레드에서 실행된 statement만 센다.
+ * <p>
+ * {@code addResponseHeaders}가 true이면 응답이 commit되기 직전까지의 집계를 응답 헤더로 추가한다.
+ * (운영 환경에서는 사용하지 않는다.)
+ */
+public class StatementCountFilter extends OncePerRequestFilter {
+
+    public static final String QUERY_COUNT_HEADER = "X-Query-Count";
+    public static final String QUERY_TIME_HEADER = "X-Query-Time";
+    public static final String REPEATED_QUERIES_HEADER = "X-Query-Repeated";
+
+    private static final int MAX_REPEATED_HEADER_LENGTH = 1024;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private int repeatThreshold = 10;
+    private boolean addResponseHeaders = false;
+
+    /**
+     * 한 요청에서 같은 statement가 이 횟수를 넘게 실행되면 warn 로그를 남긴다. (기본값: 10)
+     */
+    public void setRepeatThreshold(int repeatThreshold) {
+        this.repeatThreshold = repeatThreshold;
+    }
+
+    /**
+     * 실행 횟수({@value #QUERY_COUNT_HEADER}), DB 처리 시간 ms({@value #QUERY_TIME_HEADER}),
+     * 반복 실행된 statement({@value #REPEATED_QUERIES_HEADER}) 응답 헤더 추가 여부. (기본값: false)
+     */
+    public void setAddResponseHeaders(boolean addResponseHeaders) {
+        this.addResponseHeaders = addResponseHeaders;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        if (StatementCounter.current() != null) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        StatementCounter counter = StatementCounter.begin();
+        QueryHeaderResponseWrapper responseWrapper = addResponseHeaders ? new QueryHeaderResponseWrapper(response, counter) : null;
+
+        try {
+            filterChain.doFilter(request, (responseWrapper != null) ? responseWrapper : response);
+        } finally {
+            counter.end();
+            if (responseWrapper != null) {
+                responseWrapper.writeHeaders();
+            }
+            report(request, counter);
+        }
+    }
+
+    private void report(HttpServletRequest request, StatementCounter counter) {
+        if (counter.getTotalCount() == 0) {
+            return;
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] [{}] {} queries={}, statements={}, db time=({} ms)", request.getRemoteAddr(),
+                    request.getMethod(), request.getRequestURI(), counter.getTotalCount(), counter.getStatementCount(),
+                    String.format("%,d", TimeUnit.NANOSECONDS.toMillis(counter.getTotalNanos())));
+        }
+
+        if (log.isWarnEnabled()) {
+            counter.forEach((statementId, count, nanos) -> {
+                if (count > repeatThreshold) {
+                    log.warn("[{}] [{}] {} possible N+1 query: {} executed {} times ({} ms)", request.getRemoteAddr(),
+                            request.getMethod(), request.getRequestURI(), statementId, count,
+                            String.format("%,d", TimeUnit.NANOSECONDS.toMillis(nanos)));
+                }
+            });
+        }
+    }
+
+    private String getRepeatedStatements(StatementCounter counter) {
+        StringBuilder repeated = new StringBuilder();
+        counter.forEach((statementId, count, nanos) -> {
+            if (count > repeatThreshold && repeated.length() < MAX_REPEATED_HEADER_LENGTH) {
+                if (repeated.length() > 0) {
+                    repeated.append(", ");
+                }
+                repeated.append(statementId).append('=').append(count);
+            }
+        });
+        return repeated.toString();
+    }
+
+    /**
+     * 본문이 처음 출력되거나 응답이 commit되기 직전에 집계 헤더를 추가한다.
+     */
+    private class QueryHeaderResponseWrapper extends HttpServletResponseWrapper {
+
+        private final StatementCounter counter;
+        private boolean headersWritten;
+
+        private ServletOutputStream outputStream;
+        private PrintWriter writer;
+
+        QueryHeaderResponseWrapper(HttpServletResponse response, StatementCounter counter) {
+            super(response);
+            this.counter = counter;
+        }
+
+        void writeHeaders() {
+            if (headersWritten) {
+                return;
+            }
+            headersWritten = true;
+
+            if (isCommitted()) {
+                return;
+            }
+            setHeader(QUERY_COUNT_HEADER, Long.toString(counter.getTotalCount()));
+            setHeader(QUERY_TIME_HEADER, Long.toString(TimeUnit.NANOSECONDS.toMillis(counter.getTotalNanos())));
+            String repeated = getRepeatedStatements(counter);
+            if (!repeated.isEmpty()) {
+                setHeader(REPEATED_QUERIES_HEADER, repeated);
+            }
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (outputStream == null) {
+                outputStream = new HeaderWritingOutputStream(super.getOutputStream());
+            }
+            return outputStream;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                writer = new PrintWriter(new HeaderWritingWriter(super.getWriter()));
+            }
+            return writer;
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            writeHeaders();
+            super.flushBuffer();
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException {
+            writeHeaders();
+            super.sendError(sc);
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            writeHeaders();
+            super.sendError(sc, msg);
+        }
+
+        @Override
+        public void sendRedirect(String location) throws IOException {
+            writeHeaders();
+            super.sendRedirect(location);
+        }
+
+        @Override
+        public void reset() {
+            super.reset();
+            headersWritten = false;
+        }
+
+        private class HeaderWritingOutputStream extends ServletOutputStream {
+
+            private final ServletOutputStream target;
+
+            private HeaderWritingOutputStream(ServletOutputStream target) {
+                this.target = target;
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                writeHeaders();
+                target.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                writeHeaders();
+                target.write(b, off, len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                writeHeaders();
+                target.flush();
+            }
+
+            @Override
+            public void close() throws IOException {
+                writeHeaders();
+                target.close();
+            }
+
+            @Override
+            public boolean isReady() {
+                return target.isReady();
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+                target.setWriteListener(writeListener);
+            }
+        }
+
+        private class HeaderWritingWriter extends Writer {
+
+            private final Writer target;
+
+            private HeaderWritingWriter(Writer target) {
+                this.target = target;
+            }
+
+            @Override
+            public void write(char[] cbuf, int off, int len) throws IOException {
+                writeHeaders();
+                target.write(cbuf, off, len);
+            }
+
+            @Override
+            public void write(String str, int off, int len) throws IOException {
+                writeHeaders();
+                target.write(str, off, len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                writeHeaders();
+                target.flush();
+            }
+
+            @Override
+            public void close() throws IOException {
+                writeHeaders();
+                target.close();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,596 @@
+package wcyoung.spring.mvc.mybatis;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.ibatis.builder.InitializingObject;
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.io.Resources;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import wcyoung.spring.mvc.common.util.FrequencySketch;
+
+/**
+ * 항목 수와 weight로 크기가 제한되는 MyBatis 2차 캐시.
+ * <pre>
+ * &lt;cache type="wcyoung.spring.mvc.mybatis.BoundedCache"&gt;
+ *     &lt;property name="maximumSize" value="10000"/&gt;
+ *     &lt;property name="timeToLiveSeconds" value="600"/&gt;
+ * &lt;/cache&gt;
+ * </pre>
+ * 조회는 {@link ConcurrentHashMap}에서 잠금 없이 하고, 추가/제거는 key의 hash로 나눈 segment 단위로만 잠근다.
+ * 캐시가 가득 차면 가장 오래된 항목과 새 항목의 접근 빈도({@link FrequencySketch})를 비교해서
+ * 새 항목이 더 자주 조회된 경우에만 오래된 항목을 제거하고 받아들인다. (TinyLFU admission)
+ * <p>
+ * mapper namespace마다 인스턴스가 만들어지므로 TTL 등의 설정은 namespace별로 지정한다.
+ * {@code serialized}가 true이면 결과를 직렬화해서 heap 밖(direct buffer)에 보관하고 조회할 때마다 새 객체로 복원한다.
+ * false이면 같은 결과 객체를 공유하므로 {@code readOnly="true"}인 캐시처럼 결과를 수정하지 않아야 한다.
+ * <p>
+ * {@code registerMBean}이 true이면 platform MBeanServer에 등록되므로, 애플리케이션 종료(재배포)시
+ * {@link #unregisterMBeans()}를 호출해야 캐시와 class loader가 남지 않는다. (예: {@code DisposableBean#destroy()})
+ * mapper를 다시 읽어도 MBean이 늘어나지 않도록 이 경우 {@code jmxInstance}를 반드시 지정해야 한다.
+ */
+public class BoundedCache implements Cache, InitializingObject, BoundedCacheMXBean {
+
+    private static final int MAX_SEGMENTS = 16;
+    private static final int MIN_SEGMENT_SIZE = 64;
+    private static final long DEFAULT_SERIALIZED_MAXIMUM_WEIGHT = 64L * 1024 * 1024;
+
+    private static final Set<ObjectName> REGISTERED_MBEANS = ConcurrentHashMap.newKeySet();
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final String id;
+
+    private int maximumSize = 1024;
+    private long maximumWeight = 0;
+    private long timeToLiveSeconds = 0;
+    private boolean serialized = false;
+    private boolean registerMBean = false;
+    private String jmxDomain = "wcyoung.spring.mvc";
+    private String jmxInstance;
+    private ObjectName objectName;
+
+    private final ConcurrentMap<Object, Node> entries = new ConcurrentHashMap<>();
+    private Segment[] segments;
+    private FrequencySketch sketch;
+    private long timeToLiveNanos;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+    private final LongAdder rejectionCount = new LongAdder();
+    private final LongAdder expirationCount = new LongAdder();
+
+    public BoundedCache(String id) {
+        this.id = id;
+        build();
+    }
+
+    /**
+     * 최대 항목 수. (1 이상, 기본값: 1024)
+     */
+    public void setMaximumSize(int maximumSize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("maximumSize must be at least 1: " + maximumSize);
+        }
+        this.maximumSize = maximumSize;
+    }
+
+    /**
+     * 최대 weight 합계. serialized이면 직렬화된 byte 수, 아니면 결과 행 수({@link Collection#size()})로 계산한다.
+     * 0 이하이면 제한하지 않는다. 제한은 segment별로 나누어 적용하므로 한 항목이 너무 크면 캐시하지 않는다. (기본값: 0)
+     * <p>
+     * serialized이면 direct buffer가 GC 전까지 해제되지 않으므로 0 이하로 지정해도 64MB로 제한한다.
+     */
+    public void setMaximumWeight(long maximumWeight) {
+        this.maximumWeight = maximumWeight;
+    }
+
+    /**
+     * 저장 후 이 시간(초)이 지난 항목은 조회되지 않는다. 0 이하이면 만료되지 않는다. (기본값: 0)
+     */
+    public void setTimeToLiveSeconds(long timeToLiveSeconds) {
+        this.timeToLiveSeconds = timeToLiveSeconds;
+    }
+
+    /**
+     * 결과를 직렬화해서 heap 밖에 보관할지 여부. 결과 객체는 {@link java.io.Serializable}이어야 한다.
+     * {@code maximumWeight}를 지정하지 않으면 64MB로 제한한다. (기본값: false)
+     */
+    public void setSerialized(boolean serialized) {
+        this.serialized = serialized;
+    }
+
+    /**
+     * {@link BoundedCacheMXBean} 등록 여부. true이면 {@code jmxInstance}도 지정해야 하며,
+     * 종료시 {@link #unregisterMBeans()}를 호출해야 한다. (기본값: false)
+     */
+    public void setRegisterMBean(boolean registerMBean) {
+        this.registerMBean = registerMBean;
+    }
+
+    /**
+     * MBean ObjectName의 domain. (기본값: wcyoung.spring.mvc)
+     */
+    public void setJmxDomain(String jmxDomain) {
+        this.jmxDomain = jmxDomain;
+    }
+
+    /**
+     * 같은 JVM의 SqlSessionFactory(또는 애플리케이션)를 구분하는 ObjectName의 instance 값.
+     * mapper를 다시 읽어 같은 id의 캐시가 새로 만들어진 경우 기존 MBean을 대체한다.
+     * {@code registerMBean}이 true이면 필수이다.
+     */
+    public void setJmxInstance(String jmxInstance) {
+        this.jmxInstance = jmxInstance;
+    }
+
+    /**
+     * MyBatis가 설정값을 모두 지정한 뒤 호출한다.
+     *
+     * @throws IllegalStateException {@code registerMBean}이 true인데 {@code jmxInstance}가 없는 경우
+     */
+    @Override
+    public void initialize() {
+        if (registerMBean && (jmxInstance == null || jmxInstance.isEmpty())) {
+            throw new IllegalStateException("jmxInstance is required when registerMBean is true: " + id);
+        }
+        build();
+        if (registerMBean) {
+            registerMBean();
+        }
+    }
+
+    private void build() {
+        long maximumWeight = (serialized && this.maximumWeight <= 0) ? DEFAULT_SERIALIZED_MAXIMUM_WEIGHT : this.maximumWeight;
+
+        int segmentCount = 1;
+        while (segmentCount < MAX_SEGMENTS && (long) segmentCount * 2 * MIN_SEGMENT_SIZE <= maximumSize
+                && (maximumWeight <= 0 || segmentCount * 2 * MIN_SEGMENT_SIZE <= maximumWeight)) {
+            segmentCount <<= 1;
+        }
+
+        int segmentSize = Math.max(maximumSize / segmentCount, 1);
+        long segmentWeight = (maximumWeight > 0) ? Math.max(maximumWeight / segmentCount, 1) : Long.MAX_VALUE;
+
+        Segment[] segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(segmentSize, segmentWeight);
+        }
+
+        entries.clear();
+        this.segments = segments;
+        this.sketch = new FrequencySketch(maximumSize);
+        this.timeToLiveNanos = (timeToLiveSeconds > 0) ? TimeUnit.SECONDS.toNanos(timeToLiveSeconds) : 0;
+    }
+
+    /**
+     * 같은 ObjectName(jmxInstance와 id가 같은 캐시)의 MBean이 있으면 대체한다.
+     */
+    private void registerMBean() {
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(jmxDomain + ":type=BoundedCache,instance=" + ObjectName.quote(jmxInstance)
+                    + ",id=" + ObjectName.quote(id));
+            if (mBeanServer.isRegistered(objectName)) {
+                mBeanServer.unregisterMBean(objectName);
+            }
+            mBeanServer.registerMBean(this, objectName);
+            REGISTERED_MBEANS.add(objectName);
+            this.objectName = objectName;
+        } catch (Exception e) {
+            log.warn("failed to register cache statistics [{}]. ({})", id, e.toString());
+        }
+    }
+
+    /**
+     * 이 캐시의 MBean 등록을 해제한다.
+     */
+    public void unregisterMBean() {
+        ObjectName objectName = this.objectName;
+        if (objectName != null) {
+            this.objectName = null;
+            unregisterMBean(objectName);
+        }
+    }
+
+    /**
+     * 이 class loader에서 등록한 모든 {@link BoundedCache} MBean의 등록을 해제한다.
+     * 애플리케이션 종료(재배포)시 호출한다.
+     */
+    public static void unregisterMBeans() {
+        for (ObjectName objectName : REGISTERED_MBEANS) {
+            unregisterMBean(objectName);
+        }
+    }
+
+    private static void unregisterMBean(ObjectName objectName) {
+        REGISTERED_MBEANS.remove(objectName);
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            if (mBeanServer.isRegistered(objectName)) {
+                mBeanServer.unregisterMBean(objectName);
+            }
+        } catch (Exception e) {
+            LoggerFactory.getLogger(BoundedCache.class).debug("failed to unregister cache statistics. ({})", e.toString());
+        }
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public void putObject(Object key, Object value) {
+        ByteBuffer bytes = serialized ? serialize(value) : null;
+        long weight = (bytes != null) ? bytes.capacity() : weigh(value);
+        long expiresAt = (timeToLiveNanos > 0) ? System.nanoTime() + timeToLiveNanos : Long.MAX_VALUE;
+
+        segmentFor(key).put(new Node(key, (bytes != null) ? null : value, bytes, weight, expiresAt));
+    }
+
+    @Override
+    public Object getObject(Object key) {
+        sketch.increment(key);
+
+        Node node = entries.get(key);
+        if (node == null) {
+            missCount.increment();
+            return null;
+        }
+        if (node.expiresAt != Long.MAX_VALUE && node.expiresAt - System.nanoTime() <= 0) {
+            if (segmentFor(key).remove(node)) {
+                expirationCount.increment();
+            }
+            missCount.increment();
+            return null;
+        }
+
+        hitCount.increment();
+        return node.getValue();
+    }
+
+    @Override
+    public Object removeObject(Object key) {
+        Node node = entries.get(key);
+        if (node != null && segmentFor(key).remove(node)) {
+            return node.getValue();
+        }
+        return null;
+    }
+
+    @Override
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    @Override
+    public int getSize() {
+        return entries.size();
+    }
+
+    @Override
+    public long getWeight() {
+        long weight = 0;
+        for (Segment segment : segments) {
+            weight += segment.weight;
+        }
+        return weight;
+    }
+
+    private Segment segmentFor(Object key) {
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        return segments[hash & (segments.length - 1)];
+    }
+
+    private static long weigh(Object value) {
+        if (value instanceof Collection) {
+            return Math.max(((Collection<?>) value).size(), 1);
+        }
+        return 1;
+    }
+
+    private ByteBuffer serialize(Object value) {
+        if (value == null) {
+            return null;
+        }
+
+        try {
+            DirectBufferOutputStream bytes = new DirectBufferOutputStream();
+            try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+                output.writeObject(value);
+            }
+            return bytes.toDirectBuffer();
+        } catch (IOException e) {
+            throw new CacheException("Error serializing object.  Cause: " + e, e);
+        }
+    }
+
+    private static Object deserialize(ByteBuffer bytes) {
+        try (ObjectInputStream input = new ClassLoaderObjectInputStream(new ByteBufferInputStream(bytes.duplicate()))) {
+            return input.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new CacheException("Error deserializing object.  Cause: " + e, e);
+        }
+    }
+
+    @Override
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    @Override
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    @Override
+    public long getRejectionCount() {
+        return rejectionCount.sum();
+    }
+
+    @Override
+    public long getExpirationCount() {
+        return expirationCount.sum();
+    }
+
+    @Override
+    public double getHitRate() {
+        long hits = getHitCount();
+        long requests = hits + getMissCount();
+        return (requests == 0) ? 0 : (double) hits / requests;
+    }
+
+    @Override
+    public String toString() {
+        return "BoundedCache [id=" + id + ", size=" + getSize() + ", weight=" + getWeight()
+                + ", hitCount=" + getHitCount() + ", missCount=" + getMissCount()
+                + ", evictionCount=" + getEvictionCount() + ", rejectionCount=" + getRejectionCount()
+                + ", expirationCount=" + getExpirationCount() + ", hitRate=" + String.format("%.3f", getHitRate()) + "]";
+    }
+
+    /**
+     * 저장 순서로 연결된 캐시 항목. TTL이 모두 같으므로 만료 항목은 항상 목록 앞쪽에 있다.
+     */
+    private static final class Node {
+
+        final Object key;
+        final Object value;
+        final ByteBuffer bytes;
+        final long weight;
+        final long expiresAt;
+
+        Node previous;
+        Node next;
+
+        Node(Object key, Object value, ByteBuffer bytes, long weight, long expiresAt) {
+            this.key = key;
+            this.value = value;
+            this.bytes = bytes;
+            this.weight = weight;
+            this.expiresAt = expiresAt;
+        }
+
+        Object getValue() {
+            return (bytes != null) ? deserialize(bytes) : value;
+        }
+    }
+
+    /**
+     * key hash로 나눈 캐시 일부. 항목 추가/제거와 제거 순서 목록은 segment의 잠금 안에서만 변경한다.
+     */
+    private final class Segment extends ReentrantLock {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int maximumSize;
+        private final long maximumWeight;
+
+        private Node head;
+        private Node tail;
+        private int size;
+        private volatile long weight;
+
+        Segment(int maximumSize, long maximumWeight) {
+            this.maximumSize = maximumSize;
+            this.maximumWeight = maximumWeight;
+        }
+
+        void put(Node node) {
+            lock();
+            try {
+                if (timeToLiveNanos > 0) {
+                    expire(System.nanoTime());
+                }
+
+                Node previous = entries.get(node.key);
+                if (previous != null) {
+                    unlink(previous);
+                    entries.remove(previous.key, previous);
+                }
+
+                if (node.weight > maximumWeight) {
+                    rejectionCount.increment();
+                    return;
+                }
+
+                while (head != null && (size + 1 > maximumSize || weight + node.weight > maximumWeight)) {
+                    Node victim = head;
+                    if (previous == null && sketch.frequency(node.key) <= sketch.frequency(victim.key)) {
+                        rejectionCount.increment();
+                        return;
+                    }
+                    unlink(victim);
+                    entries.remove(victim.key, victim);
+                    evictionCount.increment();
+                }
+
+                link(node);
+                entries.put(node.key, node);
+            } finally {
+                unlock();
+            }
+        }
+
+        boolean remove(Node node) {
+            lock();
+            try {
+                if (!entries.remove(node.key, node)) {
+                    return false;
+                }
+                unlink(node);
+                return true;
+            } finally {
+                unlock();
+            }
+        }
+
+        void clear() {
+            lock();
+            try {
+                for (Node node = head; node != null; node = node.next) {
+                    entries.remove(node.key, node);
+                }
+                head = null;
+                tail = null;
+                size = 0;
+                weight = 0;
+            } finally {
+                unlock();
+            }
+        }
+
+        private void expire(long now) {
+            while (head != null && head.expiresAt - now <= 0) {
+                Node expired = head;
+                unlink(expired);
+                entries.remove(expired.key, expired);
+                expirationCount.increment();
+            }
+        }
+
+        private void link(Node node) {
+            node.previous = tail;
+            node.next = null;
+            if (tail == null) {
+                head = node;
+            } else {
+                tail.next = node;
+            }
+            tail = node;
+            size++;
+            weight += node.weight;
+        }
+
+        private void unlink(Node node) {
+            if (node.previous == null) {
+                head = node.next;
+            } else {
+                node.previous.next = node.next;
+            }
+            if (node.next == null) {
+                tail = node.previous;
+            } else {
+                node.next.previous = node.previous;
+            }
+            node.previous = null;
+            node.next = null;
+            size--;
+            weight -= node.weight;
+        }
+    }
+
+    /**
+     * 직렬화 버퍼를 {@link #toByteArray()}로 복사하지 않고 그대로 direct buffer에 옮긴다.
+     */
+    private static final class DirectBufferOutputStream extends ByteArrayOutputStream {
+
+        DirectBufferOutputStream() {
+            super(1024);
+        }
+
+        ByteBuffer toDirectBuffer() {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(count);
+            buffer.put(buf, 0, count);
+            buffer.flip();
+            return buffer;
+        }
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? (buffer.get() & 0xff) : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int length = Math.min(len, buffer.remaining());
+            buffer.get(b, off, length);
+            return length;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+    /**
+     * MyBatis {@code SerializedCache}와 같이 MyBatis의 class loader 설정으로 class를 찾는다.
+     */
+    private static final class ClassLoaderObjectInputStream extends ObjectInputStream {
+
+        ClassLoaderObjectInputStream(InputStream input) throws IOException {
+            super(input);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            try {
+                return Resources.classForName(desc.getName());
+            } catch (ClassNotFoundException e) {
+                return super.resolveClass(desc);
+            }
+        }
+    }
+
+}
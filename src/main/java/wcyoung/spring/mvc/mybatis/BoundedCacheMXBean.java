@@ -0,0 +1,40 @@
+package wcyoung.spring.mvc.mybatis;
+
+/**
+ * {@link BoundedCache} 하나(mapper namespace)의 통계.
+ */
+public interface BoundedCacheMXBean {
+
+    String getId();
+
+    int getSize();
+
+    /**
+     * 보관 중인 항목의 weight 합계. (serialized이면 byte, 아니면 결과 행 수)
+     */
+    long getWeight();
+
+    long getHitCount();
+
+    long getMissCount();
+
+    /**
+     * 새 항목을 받아들이기 위해 제거된 항목 수.
+     */
+    long getEvictionCount();
+
+    /**
+     * 빈도가 낮거나 너무 커서 캐시에 넣지 않은 항목 수.
+     */
+    long getRejectionCount();
+
+    /**
+     * TTL이 지나 제거된 항목 수.
+     */
+    long getExpirationCount();
+
+    double getHitRate();
+
+    void clear();
+
+}
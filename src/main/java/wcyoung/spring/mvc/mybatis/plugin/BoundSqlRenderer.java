@@ -0,0 +1,143 @@
+package wcyoung.spring.mvc.mybatis.plugin;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.session.Configuration;
+import org.slf4j.Logger;
+
+import wcyoung.spring.mvc.common.util.FrequencySketch;
+
+/**
+ * {@link BoundSql}의 placeholder를 파라미터 값으로 바꾼 로그용 SQL을 만든다.
+ * <p>
+ * SQL별 {@link SqlTemplate}과 파라미터 객체의 class별 접근자({@link ParameterAccessors})를 캐시해 두고 재사용한다.
+ * <p>
+ * SQL 템플릿 캐시는 가득 차면 {@link FrequencySketch}로 추정한 접근 빈도가 가장 오래된 항목보다 높은 SQL만 받아들이므로
+ * (TinyLFU admission) foreach IN 목록처럼 한 번만 쓰이는 SQL이 자주 쓰이는 SQL을 밀어내지 않는다.
+ * 제거 후보는 추가 순서(FIFO)로 정해지며, 살아남은 후보는 순서의 끝으로 다시 옮겨진다.
+ * {@code maxTemplateSqlLength}보다 긴 SQL은 캐시하지 않는다.
+ */
+final class BoundSqlRenderer {
+
+    private final Logger log;
+
+    private final ParameterAccessors parameterAccessors = new ParameterAccessors();
+    private int templateCacheSize;
+    private int maxTemplateSqlLength = 10 * 1024;
+
+    private ConcurrentMap<String, SqlTemplate> sqlTemplates;
+    private FrequencySketch sketch;
+    private final Deque<String> insertionOrder = new ArrayDeque<>();
+
+    /**
+     * @param log 파라미터를 읽지 못한 경우 경고를 남길 logger
+     */
+    BoundSqlRenderer(Logger log) {
+        this.log = log;
+        setTemplateCacheSize(1000);
+    }
+
+    /**
+     * 설정 시점에만 호출한다. 캐시된 템플릿은 버린다.
+     */
+    void setTemplateCacheSize(int templateCacheSize) {
+        if (templateCacheSize < 1) {
+            throw new IllegalArgumentException("templateCacheSize must be at least 1: " + templateCacheSize);
+        }
+        synchronized (insertionOrder) {
+            this.templateCacheSize = templateCacheSize;
+            this.sqlTemplates = new ConcurrentHashMap<>(templateCacheSize);
+            this.sketch = new FrequencySketch(templateCacheSize);
+            insertionOrder.clear();
+        }
+    }
+
+    void setMaxTemplateSqlLength(int maxTemplateSqlLength) {
+        this.maxTemplateSqlLength = maxTemplateSqlLength;
+    }
+
+    String render(Configuration configuration, BoundSql boundSql, Object parameterObject) {
+        return render(boundSql.getSql(), resolveParameters(configuration, boundSql, parameterObject));
+    }
+
+    /**
+     * @param parameters {@link #resolveParameters(Configuration, BoundSql, Object)}로 찾은 placeholder 순서의 파라미터 값
+     */
+    String render(String sql, Object[] parameters) {
+        return getSqlTemplate(sql).render(parameters);
+    }
+
+    /**
+     * MyBatis {@code DefaultParameterHandler}와 같은 순서로 파라미터 값을 찾는다.
+     * (additional parameter, {@link org.apache.ibatis.type.TypeHandler}가 있는 타입의 파라미터 자체, 파라미터 객체의 property 경로)
+     *
+     * @param configuration {@link org.apache.ibatis.mapping.MappedStatement#getConfiguration()}
+     */
+    Object[] resolveParameters(Configuration configuration, BoundSql boundSql, Object parameterObject) {
+        List<ParameterMapping> paramMappings = boundSql.getParameterMappings();
+        Object[] parameters = new Object[paramMappings.size()];
+        boolean simpleType = parameterObject != null
+                && configuration.getTypeHandlerRegistry().hasTypeHandler(parameterObject.getClass());
+
+        for (int i = 0; i < parameters.length; i++) {
+            String propertyKey = paramMappings.get(i).getProperty();
+
+            if (boundSql.hasAdditionalParameter(propertyKey)) {
+                parameters[i] = boundSql.getAdditionalParameter(propertyKey);
+            } else if (parameterObject == null) {
+                parameters[i] = null;
+            } else if (simpleType) {
+                parameters[i] = parameterObject;
+            } else {
+                try {
+                    parameters[i] = parameterAccessors.getValue(parameterObject, propertyKey);
+                } catch (RuntimeException e) {
+                    log.warn("Cannot read property named '{}' in '{}'. ({})", propertyKey, parameterObject.getClass(), e.getMessage());
+                }
+            }
+        }
+        return parameters;
+    }
+
+    private SqlTemplate getSqlTemplate(String sql) {
+        if (sql.length() > maxTemplateSqlLength) {
+            return SqlTemplate.parse(sql);
+        }
+
+        sketch.increment(sql);
+
+        SqlTemplate sqlTemplate = sqlTemplates.get(sql);
+        if (sqlTemplate == null) {
+            sqlTemplate = SqlTemplate.parse(sql);
+            admit(sql, sqlTemplate);
+        }
+        return sqlTemplate;
+    }
+
+    private void admit(String sql, SqlTemplate sqlTemplate) {
+        synchronized (insertionOrder) {
+            if (sqlTemplates.containsKey(sql)) {
+                return;
+            }
+
+            if (sqlTemplates.size() >= templateCacheSize) {
+                String victim = insertionOrder.pollFirst();
+                if (sketch.frequency(sql) <= sketch.frequency(victim)) {
+                    insertionOrder.offerLast(victim);
+                    return;
+                }
+                sqlTemplates.remove(victim);
+            }
+
+            sqlTemplates.put(sql, sqlTemplate);
+            insertionOrder.offerLast(sql);
+        }
+    }
+
+}
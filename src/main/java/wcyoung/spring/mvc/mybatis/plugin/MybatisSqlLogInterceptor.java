@@ -1,33 +1,30 @@
 package wcyoung.spring.mvc.mybatis.plugin;
 
-import java.lang.reflect.Field;
-import java.util.List;
-import java.util.Map;
-import java.util.StringTokenizer;
-import java.util.function.BiConsumer;
-
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.apache.ibatis.cache.CacheKey;
 import org.apache.ibatis.executor.Executor;
 import org.apache.ibatis.mapping.BoundSql;
 import org.apache.ibatis.mapping.MappedStatement;
-import org.apache.ibatis.mapping.ParameterMapping;
 import org.apache.ibatis.plugin.Interceptor;
 import org.apache.ibatis.plugin.Intercepts;
 import org.apache.ibatis.plugin.Invocation;
 import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.session.RowBounds;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.util.ReflectionUtils;
+import org.springframework.beans.factory.DisposableBean;
+
+import wcyoung.spring.mvc.common.util.AsyncLogDispatcher;
+import wcyoung.spring.mvc.common.util.AsyncLogDispatcher.OverflowPolicy;
 
 @Intercepts({
     @Signature(type = Executor.class, method = "query", args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class}),
     @Signature(type = Executor.class, method = "query", args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class, CacheKey.class, BoundSql.class}),
     @Signature(type = Executor.class, method = "update", args = {MappedStatement.class, Object.class})
 })
-public class MybatisSqlLogInterceptor implements Interceptor {
+public class MybatisSqlLogInterceptor implements Interceptor, DisposableBean {
 
     private Logger log = LoggerFactory.getLogger(getClass());
 
@@ -37,6 +34,12 @@ public class MybatisSqlLogInterceptor implements Interceptor {
             + "========================================== SQL ===========================================\n"
             + "    {}";
 
+    private final BoundSqlRenderer sqlRenderer = new BoundSqlRenderer(log);
+
+    private boolean asyncLogging = false;
+    private int asyncBufferSize = 1024;
+    private volatile AsyncLogDispatcher<LogEntry> dispatcher;
+
     @Override
     public Object intercept(Invocation invocation) throws Throwable {
         try {
@@ -47,8 +50,13 @@ public class MybatisSqlLogInterceptor implements Interceptor {
 
                 Logger mapperLogger = LoggerFactory.getLogger(mappedStatement.getId());
                 if (mapperLogger.isDebugEnabled()) {
-                    BoundSql boundSql = mappedStatement.getBoundSql(parameterObject);
-                    log.debug(LOG_FORMAT, mappedStatement.getId(), getParameterBindingSql(boundSql, parameterObject));
+                    BoundSql boundSql = (args.length == 6) ? (BoundSql) args[5] : mappedStatement.getBoundSql(parameterObject);
+                    if (asyncLogging) {
+                        getOrCreateDispatcher().publish(new LogEntry(mappedStatement.getId(),
+                                boundSql.getSql(), sqlRenderer.resolveParameters(mappedStatement.getConfiguration(), boundSql, parameterObject)));
+                    } else {
+                        log.debug(LOG_FORMAT, mappedStatement.getId(), getParameterBindingSql(mappedStatement.getConfiguration(), boundSql, parameterObject));
+                    }
                 }
             }
         } catch (Exception e) {
@@ -58,92 +66,86 @@ public class MybatisSqlLogInterceptor implements Interceptor {
         return invocation.proceed();
     }
 
-    private String getParameterBindingSql(BoundSql boundSql, Object parameterObject) throws Exception {
-        StringBuilder sqlStringBuilder = new StringBuilder(boundSql.getSql());
-
-        BiConsumer<StringBuilder, Object> sqlParameterReplace = (sql, parameter) -> {
-            int questionIndex = sql.indexOf("?");
-
-            if (questionIndex == -1) {
-                return;
-            }
+    /**
+     * SQL 템플릿 캐시에 보관할 최대 SQL 수. (1 이상, 기본값: 1000)
+     * 가득 차면 자주 쓰이는 SQL을 남기고, 캐시되지 않은 SQL은 매번 분석한다.
+     */
+    public void setSqlTemplateCacheSize(int sqlTemplateCacheSize) {
+        sqlRenderer.setTemplateCacheSize(sqlTemplateCacheSize);
+    }
 
-            String parameterString = "";
-            if (parameter instanceof Integer || parameter instanceof Long
-                    || parameter instanceof Float || parameter instanceof Double) {
-                parameterString = (parameter != null) ? parameter.toString() : "NULL";
-            } else {
-                parameterString = (parameter != null) ? "'" + parameter.toString().replace("'", "\\'") + "'" : "NULL";
-            }
-            sql.replace(questionIndex, questionIndex + 1, parameterString);
-        };
+    /**
+     * SQL 템플릿 캐시에 보관할 SQL의 최대 길이. 더 긴 SQL은 매번 분석한다. (기본값: 10240)
+     */
+    public void setSqlTemplateMaxLength(int sqlTemplateMaxLength) {
+        sqlRenderer.setMaxTemplateSqlLength(sqlTemplateMaxLength);
+    }
 
-        if (parameterObject == null) {
-            List<ParameterMapping> paramMappings = boundSql.getParameterMappings();
-            for (int i = 0, length = paramMappings.size(); i < length; i++) {
-                sqlParameterReplace.accept(sqlStringBuilder, parameterObject);
-            }
-        } else {
-            if (parameterObject instanceof Integer || parameterObject instanceof Long
-                    || parameterObject instanceof Float || parameterObject instanceof Double
-                    || parameterObject instanceof String) {
-                List<ParameterMapping> paramMappings = boundSql.getParameterMappings();
-                for (int i = 0, length = paramMappings.size(); i < length; i++) {
-                    sqlParameterReplace.accept(sqlStringBuilder, parameterObject);
-                }
-            } else if (parameterObject instanceof Map) {
-                List<ParameterMapping> paramMappings = boundSql.getParameterMappings();
-                Map<?, ?> parameterObjectMap = (Map<?, ?>) parameterObject;
+    /**
+     * true이면 쿼리 실행 쓰레드에서는 statement id, SQL, 파라미터 값만 모으고, SQL 렌더링과 로그 출력은
+     * {@link AsyncLogDispatcher}의 쓰레드에서 수행한다. 버퍼가 가득 차면 로그를 버린다. (기본값: false)
+     */
+    public void setAsyncLogging(boolean asyncLogging) {
+        this.asyncLogging = asyncLogging;
+    }
 
-                for (ParameterMapping parameterMapping : paramMappings) {
-                    String propertyKey = parameterMapping.getProperty();
+    /**
+     * 비동기 로그 버퍼 크기. (기본값: 1024)
+     */
+    public void setAsyncBufferSize(int asyncBufferSize) {
+        this.asyncBufferSize = asyncBufferSize;
+    }
 
-                    Object paramValue = null;
-                    if (boundSql.hasAdditionalParameter(propertyKey)) {
-                        paramValue = boundSql.getAdditionalParameter(propertyKey);
-                    } else {
-                        paramValue = parameterObjectMap.get(propertyKey);
-                    }
+    /**
+     * 비동기 로그 모드에서 사용 중인 {@link AsyncLogDispatcher}. 아직 만들어지지 않았으면 null.
+     */
+    public AsyncLogDispatcher<?> getDispatcher() {
+        return dispatcher;
+    }
 
-                    sqlParameterReplace.accept(sqlStringBuilder, paramValue);
-                }
-            } else {
-                List<ParameterMapping> paramMappings = boundSql.getParameterMappings();
-                Class<?> paramClass = parameterObject.getClass();
+    @Override
+    public void destroy() {
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+        }
+    }
 
-                for (ParameterMapping parameterMapping : paramMappings) {
-                    String propertyKey = parameterMapping.getProperty();
+    String getParameterBindingSql(Configuration configuration, BoundSql boundSql, Object parameterObject) throws Exception {
+        return sqlRenderer.render(configuration, boundSql, parameterObject);
+    }
 
-                    Object paramValue = null;
-                    if (boundSql.hasAdditionalParameter(propertyKey)) {
-                        paramValue = boundSql.getAdditionalParameter(propertyKey);
-                    } else {
-                        try {
-                            Field field = ReflectionUtils.findField(paramClass, propertyKey);
-                            field.setAccessible(true);
-                            paramValue = field.get(parameterObject);
-                        } catch (Exception e) {
-                            log.warn("There is no getter for property named '{}' in '{}'", propertyKey, paramClass);
-                        }
-                    }
+    private void logEntry(LogEntry entry) {
+        log.debug(LOG_FORMAT, entry.statementId, sqlRenderer.render(entry.sql, entry.parameters));
+    }
 
-                    sqlParameterReplace.accept(sqlStringBuilder, paramValue);
+    private AsyncLogDispatcher<LogEntry> getOrCreateDispatcher() {
+        AsyncLogDispatcher<LogEntry> current = dispatcher;
+        if (current == null) {
+            synchronized (this) {
+                current = dispatcher;
+                if (current == null) {
+                    current = new AsyncLogDispatcher<>("sql", asyncBufferSize, OverflowPolicy.DROP, this::logEntry);
+                    dispatcher = current;
                 }
             }
         }
+        return current;
+    }
 
-        StringTokenizer stringTokenizer = new StringTokenizer(sqlStringBuilder.toString(), "\n");
-        StringBuilder trimedSqlStringBuilder = new StringBuilder();
-        String line;
+    /**
+     * 쿼리 실행 전에 만든 SQL 로그 스냅샷. 파라미터 값은 참조만 복사한다.
+     */
+    private static final class LogEntry {
 
-        while (stringTokenizer.hasMoreTokens()) {
-            line = stringTokenizer.nextToken();
-            if (!line.trim().equals("")) {
-                trimedSqlStringBuilder.append(line).append("\n");
-            }
-        }
+        final String statementId;
+        final String sql;
+        final Object[] parameters;
 
-        return trimedSqlStringBuilder.toString();
+        LogEntry(String statementId, String sql, Object[] parameters) {
+            this.statementId = statementId;
+            this.sql = sql;
+            this.parameters = parameters;
+        }
     }
 
 }
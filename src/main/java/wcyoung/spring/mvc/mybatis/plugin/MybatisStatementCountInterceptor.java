@@ -0,0 +1,44 @@
+package wcyoung.spring.mvc.mybatis.plugin;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+
+/**
+ * 현재 쓰레드에서 기록 중인 {@link StatementCounter}가 있으면 query/update 실행 횟수와 시간을 기록한다.
+ * <p>
+ * 카운터가 없는 경우(요청 밖의 배치 작업 등)에는 {@link ThreadLocal} 조회 한 번 외에 비용이 없다.
+ *
+ * @see wcyoung.spring.mvc.filter.StatementCountFilter
+ */
+@Intercepts({
+    @Signature(type = Executor.class, method = "query", args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class}),
+    @Signature(type = Executor.class, method = "query", args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class, CacheKey.class, BoundSql.class}),
+    @Signature(type = Executor.class, method = "update", args = {MappedStatement.class, Object.class})
+})
+public class MybatisStatementCountInterceptor implements Interceptor {
+
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+        StatementCounter counter = StatementCounter.current();
+        if (counter == null) {
+            return invocation.proceed();
+        }
+
+        long startTime = System.nanoTime();
+        try {
+            return invocation.proceed();
+        } finally {
+            MappedStatement mappedStatement = (MappedStatement) invocation.getArgs()[0];
+            counter.record(mappedStatement.getId(), System.nanoTime() - startTime);
+        }
+    }
+
+}
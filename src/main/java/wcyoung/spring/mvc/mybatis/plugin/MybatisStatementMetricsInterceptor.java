@@ -0,0 +1,217 @@
+package wcyoung.spring.mvc.mybatis.plugin;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * query/update 실행 시간을 {@link MappedStatement#getId()}별 {@link StatementMetrics}로 기록하고 JMX로 노출한다.
+ * <p>
+ * 평소에는 {@link System#nanoTime()} 두 번과 histogram 기록만 하고, 파라미터를 채운 SQL은
+ * {@code slowThresholdMillis} 이상 걸린 실행에 대해서만 만들어 warn 로그로 남긴다.
+ * {@code maxStatements}를 넘는 statement는 {@link #OTHER}로 모은다.
+ * <p>
+ * {@code registerMBeans}가 true이면 platform MBeanServer에 등록되므로, 애플리케이션 종료(재배포)시
+ * {@link #destroy()} 또는 {@link #unregisterMBeans()}를 호출해야 class loader가 남지 않는다.
+ * mybatis-config.xml에 선언해서 {@link #destroy()}가 호출되지 않는 경우에는 {@link #unregisterMBeans()}를 호출한다.
+ */
+@Intercepts({
+    @Signature(type = Executor.class, method = "query", args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class}),
+    @Signature(type = Executor.class, method = "query", args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class, CacheKey.class, BoundSql.class}),
+    @Signature(type = Executor.class, method = "update", args = {MappedStatement.class, Object.class})
+})
+public class MybatisStatementMetricsInterceptor implements Interceptor, DisposableBean {
+
+    public static final String OTHER = "OTHER";
+
+    private static final Set<ObjectName> REGISTERED_MBEANS = ConcurrentHashMap.newKeySet();
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final ConcurrentMap<String, StatementMetrics> metrics = new ConcurrentHashMap<>();
+    private final BoundSqlRenderer sqlRenderer = new BoundSqlRenderer(log);
+
+    private long slowThresholdNanos = TimeUnit.SECONDS.toNanos(1);
+    private int maxStatements = 1000;
+    private String jmxDomain = "wcyoung.spring.mvc";
+    private boolean registerMBeans = false;
+    private String jmxInstance = Integer.toHexString(System.identityHashCode(this));
+
+    private MBeanServer mBeanServer;
+    private final Set<ObjectName> registeredMBeans = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 이 시간(ms) 이상 걸린 실행은 SQL과 함께 warn 로그를 남긴다. 0 이하이면 남기지 않는다. (기본값: 1000)
+     */
+    public void setSlowThresholdMillis(long slowThresholdMillis) {
+        this.slowThresholdNanos = (slowThresholdMillis > 0) ? TimeUnit.MILLISECONDS.toNanos(slowThresholdMillis) : Long.MAX_VALUE;
+    }
+
+    /**
+     * 개별로 기록할 최대 statement 수. 초과하는 statement는 {@link #OTHER}로 모은다. (기본값: 1000)
+     */
+    public void setMaxStatements(int maxStatements) {
+        this.maxStatements = maxStatements;
+    }
+
+    /**
+     * MBean ObjectName의 domain. (기본값: wcyoung.spring.mvc)
+     */
+    public void setJmxDomain(String jmxDomain) {
+        this.jmxDomain = jmxDomain;
+    }
+
+    /**
+     * statement별 {@link StatementMetricsMXBean} 등록 여부. 등록하면 종료시 {@link #destroy()} 또는
+     * {@link #unregisterMBeans()}를 호출해야 한다. (기본값: false)
+     */
+    public void setRegisterMBeans(boolean registerMBeans) {
+        this.registerMBeans = registerMBeans;
+    }
+
+    /**
+     * 같은 JVM의 SqlSessionFactory(또는 애플리케이션)를 구분하는 ObjectName의 instance 값.
+     * 지정하지 않으면 인스턴스마다 다른 값을 사용한다.
+     */
+    public void setJmxInstance(String jmxInstance) {
+        this.jmxInstance = jmxInstance;
+    }
+
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+        long startTime = System.nanoTime();
+        boolean error = true;
+
+        try {
+            Object result = invocation.proceed();
+            error = false;
+            return result;
+        } finally {
+            record(invocation.getArgs(), System.nanoTime() - startTime, error);
+        }
+    }
+
+    private void record(Object[] args, long nanos, boolean error) {
+        MappedStatement mappedStatement = (MappedStatement) args[0];
+        boolean slow = nanos >= slowThresholdNanos;
+
+        getMetrics(mappedStatement.getId()).record(TimeUnit.NANOSECONDS.toMicros(nanos), error, slow);
+
+        if (slow) {
+            logSlowStatement(mappedStatement, args, nanos);
+        }
+    }
+
+    private void logSlowStatement(MappedStatement mappedStatement, Object[] args, long nanos) {
+        try {
+            Object parameterObject = args[1];
+            BoundSql boundSql = (args.length == 6) ? (BoundSql) args[5] : mappedStatement.getBoundSql(parameterObject);
+            log.warn("[{}] slow statement ({} ms)\n    {}", mappedStatement.getId(),
+                    String.format("%,d", TimeUnit.NANOSECONDS.toMillis(nanos)), sqlRenderer.render(mappedStatement.getConfiguration(), boundSql, parameterObject));
+        } catch (RuntimeException e) {
+            log.warn("[{}] slow statement ({} ms) ({})", mappedStatement.getId(),
+                    String.format("%,d", TimeUnit.NANOSECONDS.toMillis(nanos)), e.toString());
+        }
+    }
+
+    public Collection<StatementMetrics> getMetrics() {
+        return Collections.unmodifiableCollection(metrics.values());
+    }
+
+    private StatementMetrics getMetrics(String statementId) {
+        StatementMetrics statementMetrics = metrics.get(statementId);
+        if (statementMetrics != null) {
+            return statementMetrics;
+        }
+
+        String key = (metrics.size() < maxStatements) ? statementId : OTHER;
+        statementMetrics = metrics.get(key);
+        if (statementMetrics == null) {
+            StatementMetrics created = new StatementMetrics(key);
+            statementMetrics = metrics.putIfAbsent(key, created);
+            if (statementMetrics == null) {
+                statementMetrics = created;
+                register(created);
+            }
+        }
+        return statementMetrics;
+    }
+
+    private void register(StatementMetrics statementMetrics) {
+        if (!registerMBeans) {
+            return;
+        }
+
+        try {
+            if (mBeanServer == null) {
+                mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            }
+            ObjectName objectName = getObjectName(statementMetrics.getStatementId());
+            mBeanServer.registerMBean(statementMetrics, objectName);
+            registeredMBeans.add(objectName);
+            REGISTERED_MBEANS.add(objectName);
+        } catch (Exception e) {
+            log.warn("failed to register statement metrics [{}]. ({})", statementMetrics.getStatementId(), e.toString());
+        }
+    }
+
+    /**
+     * 이 interceptor가 등록한 MBean의 등록을 해제한다.
+     */
+    @Override
+    public void destroy() {
+        for (ObjectName objectName : registeredMBeans) {
+            registeredMBeans.remove(objectName);
+            unregisterMBean(objectName);
+        }
+    }
+
+    /**
+     * 이 class loader에서 등록한 모든 {@link StatementMetricsMXBean}의 등록을 해제한다.
+     * 애플리케이션 종료(재배포)시 호출한다.
+     */
+    public static void unregisterMBeans() {
+        for (ObjectName objectName : REGISTERED_MBEANS) {
+            unregisterMBean(objectName);
+        }
+    }
+
+    private static void unregisterMBean(ObjectName objectName) {
+        REGISTERED_MBEANS.remove(objectName);
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            if (mBeanServer.isRegistered(objectName)) {
+                mBeanServer.unregisterMBean(objectName);
+            }
+        } catch (Exception e) {
+            LoggerFactory.getLogger(MybatisStatementMetricsInterceptor.class).debug("failed to unregister statement metrics. ({})", e.toString());
+        }
+    }
+
+    private ObjectName getObjectName(String statementId) throws Exception {
+        return new ObjectName(jmxDomain + ":type=StatementMetrics,instance=" + ObjectName.quote(jmxInstance)
+                + ",statement=" + ObjectName.quote(statementId));
+    }
+
+}
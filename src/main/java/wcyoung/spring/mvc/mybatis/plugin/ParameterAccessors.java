@@ -0,0 +1,212 @@
+package wcyoung.spring.mvc.mybatis.plugin;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.ibatis.reflection.DefaultReflectorFactory;
+import org.apache.ibatis.reflection.ReflectionException;
+import org.apache.ibatis.reflection.Reflector;
+import org.apache.ibatis.reflection.ReflectorFactory;
+import org.apache.ibatis.reflection.invoker.Invoker;
+import org.apache.ibatis.reflection.property.PropertyTokenizer;
+
+/**
+ * 파라미터 객체의 property 경로({@code id}, {@code criteria.user.id}, {@code items[0].name}) 접근자 캐시.
+ * <p>
+ * MyBatis {@link Reflector}로 (class, 경로)별 접근자를 한 번만 만들어 두므로, 이후에는 class 계층 탐색이나
+ * {@code setAccessible} 없이 getter(getter가 없으면 필드) 호출만 한다.
+ * Map({@code @Param} 다중 파라미터 포함)은 key로 조회하고, 선언 타입으로 찾을 수 없는 하위 경로는
+ * 실제 값의 class 기준 접근자를 사용한다.
+ */
+final class ParameterAccessors {
+
+    private final ReflectorFactory reflectorFactory = new DefaultReflectorFactory();
+
+    private final ClassValue<ConcurrentMap<String, Accessor>> accessors = new ClassValue<ConcurrentMap<String, Accessor>>() {
+        @Override
+        protected ConcurrentMap<String, Accessor> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
+    /**
+     * @throws ReflectionException property를 읽을 수 없는 경우
+     */
+    Object getValue(Object object, String path) {
+        return getAccessor(object.getClass(), path).get(object);
+    }
+
+    private Accessor getAccessor(Class<?> type, String path) {
+        ConcurrentMap<String, Accessor> typeAccessors = accessors.get(type);
+        Accessor accessor = typeAccessors.get(path);
+        if (accessor == null) {
+            try {
+                accessor = resolve(type, new PropertyTokenizer(path));
+            } catch (ReflectionException e) {
+                accessor = new MissingAccessor(e.getMessage());
+            }
+            typeAccessors.putIfAbsent(path, accessor);
+        }
+        return accessor;
+    }
+
+    private Accessor resolve(Class<?> type, PropertyTokenizer property) {
+        String name = property.getName();
+
+        Accessor accessor;
+        Class<?> valueType;
+        if (Map.class.isAssignableFrom(type)) {
+            accessor = new MapAccessor(name);
+            valueType = Object.class;
+        } else {
+            Reflector reflector = reflectorFactory.findForClass(type);
+            if (!reflector.hasGetter(name)) {
+                throw new ReflectionException("There is no getter for property named '" + name + "' in '" + type + "'");
+            }
+            accessor = new InvokerAccessor(reflector.getGetInvoker(name));
+            valueType = reflector.getGetterType(name);
+        }
+
+        if (property.getIndex() != null) {
+            accessor = new IndexedAccessor(accessor, property.getIndex());
+            valueType = Object.class;
+        }
+
+        if (!property.hasNext()) {
+            return accessor;
+        }
+        return new NestedAccessor(accessor, resolveChildren(valueType, property.getChildren()));
+    }
+
+    /**
+     * 선언 타입이 구체적이면 미리 접근자를 만들고, 그렇지 않으면 실제 값의 class로 찾는다.
+     */
+    private Accessor resolveChildren(Class<?> valueType, String children) {
+        if (valueType != Object.class && (!valueType.isInterface() || Map.class.isAssignableFrom(valueType))) {
+            try {
+                return resolve(valueType, new PropertyTokenizer(children));
+            } catch (ReflectionException e) {
+                // 하위 class에만 있는 property일 수 있다.
+            }
+        }
+        return new RuntimeTypeAccessor(children);
+    }
+
+    private interface Accessor {
+
+        Object get(Object object);
+    }
+
+    private static final class MapAccessor implements Accessor {
+
+        private final String key;
+
+        MapAccessor(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public Object get(Object object) {
+            return ((Map<?, ?>) object).get(key);
+        }
+    }
+
+    private static final class InvokerAccessor implements Accessor {
+
+        private final Invoker invoker;
+
+        InvokerAccessor(Invoker invoker) {
+            this.invoker = invoker;
+        }
+
+        @Override
+        public Object get(Object object) {
+            try {
+                return invoker.invoke(object, null);
+            } catch (IllegalAccessException e) {
+                throw new ReflectionException(e.toString(), e);
+            } catch (InvocationTargetException e) {
+                throw new ReflectionException(e.getTargetException().toString(), e.getTargetException());
+            }
+        }
+    }
+
+    /**
+     * {@code name[index]}. MyBatis와 같이 Map은 key, List와 배열은 번호로 조회한다.
+     */
+    private static final class IndexedAccessor implements Accessor {
+
+        private final Accessor collection;
+        private final String index;
+
+        IndexedAccessor(Accessor collection, String index) {
+            this.collection = collection;
+            this.index = index;
+        }
+
+        @Override
+        public Object get(Object object) {
+            Object value = collection.get(object);
+            if (value == null) {
+                return null;
+            } else if (value instanceof Map) {
+                return ((Map<?, ?>) value).get(index);
+            } else if (value instanceof List) {
+                return ((List<?>) value).get(Integer.parseInt(index));
+            } else if (value.getClass().isArray()) {
+                return Array.get(value, Integer.parseInt(index));
+            }
+            throw new ReflectionException("The '" + index + "' property of " + value + " is not a List or Array.");
+        }
+    }
+
+    private static final class NestedAccessor implements Accessor {
+
+        private final Accessor parent;
+        private final Accessor child;
+
+        NestedAccessor(Accessor parent, Accessor child) {
+            this.parent = parent;
+            this.child = child;
+        }
+
+        @Override
+        public Object get(Object object) {
+            Object value = parent.get(object);
+            return (value != null) ? child.get(value) : null;
+        }
+    }
+
+    private final class RuntimeTypeAccessor implements Accessor {
+
+        private final String path;
+
+        RuntimeTypeAccessor(String path) {
+            this.path = path;
+        }
+
+        @Override
+        public Object get(Object object) {
+            return getAccessor(object.getClass(), path).get(object);
+        }
+    }
+
+    private static final class MissingAccessor implements Accessor {
+
+        private final String message;
+
+        MissingAccessor(String message) {
+            this.message = message;
+        }
+
+        @Override
+        public Object get(Object object) {
+            throw new ReflectionException(message);
+        }
+    }
+
+}
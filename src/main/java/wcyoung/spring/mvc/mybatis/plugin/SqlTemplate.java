@@ -0,0 +1,139 @@
+package wcyoung.spring.mvc.mybatis.plugin;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 파라미터 치환용으로 미리 분석해 둔 SQL.
+ * <p>
+ * 공백뿐인 줄을 제거한 SQL을 placeholder({@code ?}) 위치에서 잘라 두므로, 렌더링은 조각과 파라미터 값을
+ * 한 번씩 이어 붙이기만 하면 된다. 문자열 리터럴({@code '...'}), 따옴표 식별자({@code "..."}),
+ * 한 줄 주석({@code --}), 블록 주석의 {@code ?}는 placeholder로 보지 않는다.
+ */
+final class SqlTemplate {
+
+    private final String[] segments;
+    private final int length;
+
+    private SqlTemplate(String[] segments) {
+        this.segments = segments;
+
+        int length = 0;
+        for (String segment : segments) {
+            length += segment.length();
+        }
+        this.length = length;
+    }
+
+    static SqlTemplate parse(String sql) {
+        List<String> segments = new ArrayList<>();
+        StringBuilder segment = new StringBuilder(sql.length());
+
+        char quote = 0;
+        boolean lineComment = false;
+        boolean blockComment = false;
+
+        int lineStart = 0;
+        int sqlLength = sql.length();
+        while (lineStart < sqlLength) {
+            int lineEnd = sql.indexOf('\n', lineStart);
+            if (lineEnd == -1) {
+                lineEnd = sqlLength;
+            }
+
+            if (!isBlank(sql, lineStart, lineEnd)) {
+                for (int i = lineStart; i < lineEnd; i++) {
+                    char c = sql.charAt(i);
+                    char next = (i + 1 < lineEnd) ? sql.charAt(i + 1) : 0;
+
+                    if (quote != 0) {
+                        if (c == quote) {
+                            quote = 0;
+                        }
+                    } else if (lineComment) {
+                        // 줄 끝까지 주석
+                    } else if (blockComment) {
+                        if (c == '*' && next == '/') {
+                            blockComment = false;
+                            segment.append(c);
+                            c = next;
+                            i++;
+                        }
+                    } else if (c == '\'' || c == '"') {
+                        quote = c;
+                    } else if (c == '-' && next == '-') {
+                        lineComment = true;
+                    } else if (c == '/' && next == '*') {
+                        blockComment = true;
+                        segment.append(c);
+                        c = next;
+                        i++;
+                    } else if (c == '?') {
+                        segments.add(segment.toString());
+                        segment.setLength(0);
+                        continue;
+                    }
+                    segment.append(c);
+                }
+                segment.append('\n');
+            }
+
+            lineComment = false;
+            lineStart = lineEnd + 1;
+        }
+
+        segments.add(segment.toString());
+        return new SqlTemplate(segments.toArray(new String[0]));
+    }
+
+    /**
+     * {@link String#trim()}이 빈 문자열인 줄인지 여부.
+     */
+    private static boolean isBlank(String sql, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (sql.charAt(i) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * placeholder를 순서대로 파라미터 값으로 바꾼다. 값이 모자라면 남은 placeholder는 그대로 둔다.
+     */
+    String render(Object[] parameters) {
+        StringBuilder sql = new StringBuilder(length + parameters.length * 8);
+        sql.append(segments[0]);
+
+        for (int i = 1; i < segments.length; i++) {
+            if (i <= parameters.length) {
+                appendParameter(sql, parameters[i - 1]);
+            } else {
+                sql.append('?');
+            }
+            sql.append(segments[i]);
+        }
+        return sql.toString();
+    }
+
+    private static void appendParameter(StringBuilder sql, Object parameter) {
+        if (parameter == null) {
+            sql.append("NULL");
+        } else if (parameter instanceof Integer || parameter instanceof Long
+                || parameter instanceof Float || parameter instanceof Double) {
+            sql.append(parameter);
+        } else {
+            String value = parameter.toString();
+            sql.append('\'');
+            for (int i = 0, length = value.length(); i < length; i++) {
+                char c = value.charAt(i);
+                if (c == '\'') {
+                    sql.append('\\');
+                }
+                sql.append(c);
+            }
+            sql.append('\'');
+        }
+    }
+
+}
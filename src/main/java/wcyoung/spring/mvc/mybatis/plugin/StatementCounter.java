@@ -0,0 +1,138 @@
+package wcyoung.spring.mvc.mybatis.plugin;
+
+/**
+ * 요청 하나를 처리하는 동안 쓰레드에서 실행된 statement 수와 실행 시간을 statement id별로 센다.
+ * <p>
+ * {@link #begin()}부터 {@link #end()}까지 현재 쓰레드에만 연결되므로 동기화가 없고, 새 statement id가 나올 때 외에는
+ * 기록시 객체를 만들지 않는다. 다른 쓰레드(비동기 처리 등)에서 실행된 statement는 세지 않는다.
+ * <p>
+ * {@link #end()}에서 {@link ThreadLocal} 항목을 지우므로 요청이 끝난 뒤 pool 쓰레드에 카운터가 남지 않는다.
+ *
+ * @see MybatisStatementCountInterceptor
+ * @see wcyoung.spring.mvc.filter.StatementCountFilter
+ */
+public final class StatementCounter {
+
+    private static final int INITIAL_CAPACITY = 32;
+
+    private static final ThreadLocal<StatementCounter> COUNTERS = new ThreadLocal<>();
+
+    private String[] statementIds = new String[INITIAL_CAPACITY];
+    private int[] counts = new int[INITIAL_CAPACITY];
+    private long[] nanos = new long[INITIAL_CAPACITY];
+    private int size;
+
+    private long totalCount;
+    private long totalNanos;
+
+    private StatementCounter() {
+    }
+
+    /**
+     * 현재 쓰레드에 새 카운터를 연결하고 기록을 시작한다. 반드시 {@link #end()}를 호출해야 한다.
+     */
+    public static StatementCounter begin() {
+        StatementCounter counter = new StatementCounter();
+        COUNTERS.set(counter);
+        return counter;
+    }
+
+    /**
+     * 기록 중인 현재 쓰레드의 카운터. 없으면 null.
+     */
+    public static StatementCounter current() {
+        return COUNTERS.get();
+    }
+
+    /**
+     * 기록을 끝내고 현재 쓰레드에서 카운터를 분리한다. 기록된 값은 이 인스턴스에서 계속 읽을 수 있다.
+     */
+    public void end() {
+        if (COUNTERS.get() == this) {
+            COUNTERS.remove();
+        }
+    }
+
+    void record(String statementId, long elapsedNanos) {
+        totalCount++;
+        totalNanos += elapsedNanos;
+
+        int index = indexOf(statementIds, statementId);
+        if (statementIds[index] == null) {
+            if ((size + 1) * 2 > statementIds.length) {
+                grow();
+                index = indexOf(statementIds, statementId);
+            }
+            statementIds[index] = statementId;
+            size++;
+        }
+        counts[index]++;
+        nanos[index] += elapsedNanos;
+    }
+
+    /**
+     * statement id가 있는 위치 또는 들어갈 빈 위치. (open addressing, linear probing)
+     */
+    private static int indexOf(String[] statementIds, String statementId) {
+        int mask = statementIds.length - 1;
+        int index = statementId.hashCode() & mask;
+        while (true) {
+            String current = statementIds[index];
+            if (current == null || current == statementId || current.equals(statementId)) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    private void grow() {
+        String[] oldStatementIds = statementIds;
+        int[] oldCounts = counts;
+        long[] oldNanos = nanos;
+
+        statementIds = new String[oldStatementIds.length * 2];
+        counts = new int[statementIds.length];
+        nanos = new long[statementIds.length];
+        for (int i = 0; i < oldStatementIds.length; i++) {
+            if (oldStatementIds[i] != null) {
+                int index = indexOf(statementIds, oldStatementIds[i]);
+                statementIds[index] = oldStatementIds[i];
+                counts[index] = oldCounts[i];
+                nanos[index] = oldNanos[i];
+            }
+        }
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * 실행된 서로 다른 statement 수.
+     */
+    public int getStatementCount() {
+        return size;
+    }
+
+    /**
+     * statement id별 실행 횟수와 실행 시간 합계를 순서 없이 전달한다.
+     */
+    public void forEach(StatementVisitor visitor) {
+        for (int i = 0; i < statementIds.length; i++) {
+            if (statementIds[i] != null) {
+                visitor.visit(statementIds[i], counts[i], nanos[i]);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    public interface StatementVisitor {
+
+        void visit(String statementId, int count, long nanos);
+    }
+
+}
@@ -0,0 +1,97 @@
+package wcyoung.spring.mvc.mybatis.plugin;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import wcyoung.spring.mvc.common.util.ConcurrentHistogram;
+
+/**
+ * {@link org.apache.ibatis.mapping.MappedStatement} 하나의 실행 시간 histogram. μs 단위로 기록한다.
+ */
+public class StatementMetrics implements StatementMetricsMXBean {
+
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.HOURS.toMicros(1);
+
+    private final String statementId;
+    private final ConcurrentHistogram latency = new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS);
+    private final LongAdder errorCount = new LongAdder();
+    private final LongAdder slowCount = new LongAdder();
+
+    StatementMetrics(String statementId) {
+        this.statementId = statementId;
+    }
+
+    void record(long micros, boolean error, boolean slow) {
+        latency.record(micros);
+        if (error) {
+            errorCount.increment();
+        }
+        if (slow) {
+            slowCount.increment();
+        }
+    }
+
+    @Override
+    public String getStatementId() {
+        return statementId;
+    }
+
+    @Override
+    public long getCount() {
+        return latency.getCount();
+    }
+
+    @Override
+    public long getErrorCount() {
+        return errorCount.sum();
+    }
+
+    @Override
+    public long getSlowCount() {
+        return slowCount.sum();
+    }
+
+    @Override
+    public double getMeanMillis() {
+        return latency.getMean() / 1000.0;
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return toMillis(latency.getMax());
+    }
+
+    @Override
+    public double getP50Millis() {
+        return toMillis(latency.getValueAtPercentile(50));
+    }
+
+    @Override
+    public double getP99Millis() {
+        return toMillis(latency.getValueAtPercentile(99));
+    }
+
+    @Override
+    public double getP999Millis() {
+        return toMillis(latency.getValueAtPercentile(99.9));
+    }
+
+    @Override
+    public void reset() {
+        latency.reset();
+        errorCount.reset();
+        slowCount.reset();
+    }
+
+    private static double toMillis(long micros) {
+        return micros / 1000.0;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + statementId + "] count=" + getCount() + ", errors=" + getErrorCount() + ", slow=" + getSlowCount()
+                + String.format(", p50=%.1fms, p99=%.1fms, p999=%.1fms, max=%.1fms",
+                        getP50Millis(), getP99Millis(), getP999Millis(), getMaxMillis());
+    }
+
+}
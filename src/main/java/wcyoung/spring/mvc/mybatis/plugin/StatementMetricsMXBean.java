@@ -0,0 +1,34 @@
+package wcyoung.spring.mvc.mybatis.plugin;
+
+/**
+ * MyBatis statement 하나의 실행 통계. 시간은 ms 단위.
+ */
+public interface StatementMetricsMXBean {
+
+    String getStatementId();
+
+    long getCount();
+
+    /**
+     * 예외로 끝난 실행 수.
+     */
+    long getErrorCount();
+
+    /**
+     * slow query 기준 이상 걸린 실행 수.
+     */
+    long getSlowCount();
+
+    double getMeanMillis();
+
+    double getMaxMillis();
+
+    double getP50Millis();
+
+    double getP99Millis();
+
+    double getP999Millis();
+
+    void reset();
+
+}